@@ -0,0 +1,17 @@
+package com.interview.timeseries;
+
+/**
+ * Aggregate functions computed inside the store over a query range.
+ */
+public enum Aggregation {
+    /** Number of points. */
+    COUNT,
+    /** Sum of the values, 0 for no points. */
+    SUM,
+    /** Smallest value, NaN for no points. */
+    MIN,
+    /** Largest value, NaN for no points. */
+    MAX,
+    /** Mean of the values, NaN for no points. */
+    AVG
+}
@@ -4,6 +4,7 @@ import java.io.BufferedReader;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
@@ -18,6 +19,8 @@ import java.util.concurrent.TimeUnit;
 public class BenchmarkStore {
     private static final String CSV = "time_series_data.csv";
     private static final int QUERY_COUNT = 1_000; // number of queries to issue
+    private static final int BATCH_SIZE = 10_000; // rows per insertBatch call
+    private static final int SELECTIVE_HOSTS = 20_000; // series of the selective query metric
 
     public static void main(String[] args) throws Exception {
         Path path = Paths.get(CSV);
@@ -35,7 +38,8 @@ public class BenchmarkStore {
         String[] headers = headerLine.split(",");
         List<String> tagKeys = Arrays.asList(headers).subList(3, headers.length);
 
-        // load & insert all rows, measuring throughput
+        // load & insert all rows in batches, measuring throughput
+        List<DataPoint> batch = new ArrayList<>(BATCH_SIZE);
         long count = 0;
         long startNs = System.nanoTime();
         String line;
@@ -60,9 +64,14 @@ public class BenchmarkStore {
                     break;
                 }
             }
-            store.insert(ts, metric, value, tags);
+            batch.add(new DataPoint(ts, metric, value, tags));
             count++;
+            if (batch.size() == BATCH_SIZE) {
+                store.insertBatch(batch);
+                batch.clear();
+            }
         }
+        store.insertBatch(batch);
         long durationNs = System.nanoTime() - startNs;
         double secs = durationNs / 1e9;
         System.out.println(
@@ -72,7 +81,7 @@ public class BenchmarkStore {
         );
 
         // count distinct metrics
-        int distinctMetrics = ((TimeSeriesStoreImpl) store).getStore().keySet().size();
+        int distinctMetrics = store.getMetrics().size();
         System.out.println(
             "Distinct metrics: " + distinctMetrics
         );
@@ -112,6 +121,56 @@ public class BenchmarkStore {
             )
         );
 
+        // run selective queries over many series, with AND terms of very
+        // different selectivity: the planner starts from the host posting
+        selectiveQueries(store);
+
         store.shutdown();
     }
+
+    /**
+     * Inserts a metric of SELECTIVE_HOSTS series over the last 24h, tagged
+     * with a host (unique), a region (4 values) and an env (2 values), and
+     * queries one host of it through a three term filter.
+     */
+    private static void selectiveQueries(TimeSeriesStoreImpl store) {
+        String[] regions = {"us-east", "us-west", "eu-central", "ap-south"};
+        long end = System.currentTimeMillis();
+        long start = end - TimeUnit.HOURS.toMillis(24);
+        List<DataPoint> batch = new ArrayList<>(BATCH_SIZE);
+        for (long ts = start; ts < end; ts += TimeUnit.MINUTES.toMillis(10)) {
+            for (int h = 0; h < SELECTIVE_HOSTS; h++) {
+                Map<String, String> tags = Map.of(
+                    "host", String.format("host%04d", h),
+                    "region", regions[h % regions.length],
+                    "env", h % 10 == 0 ? "staging" : "prod"
+                );
+                batch.add(new DataPoint(ts, "request.count", h, tags));
+                if (batch.size() == BATCH_SIZE) {
+                    store.insertBatch(batch);
+                    batch.clear();
+                }
+            }
+        }
+        store.insertBatch(batch);
+
+        Map<String, String> filter = Map.of(
+            "env", "prod",
+            "region", "eu-central",
+            "host", "host0042"
+        );
+        int qcount = QUERY_COUNT;
+        long points = 0;
+        long qStartNs = System.nanoTime();
+        for (int i = 0; i < qcount; i++) {
+            points += store.query("request.count", start, end, filter).size();
+        }
+        long qDurationNs = System.nanoTime() - qStartNs;
+        double qSecs = qDurationNs / 1e9;
+        System.out.println(
+            String.format("Ran %,d selective queries over %,d series in %.2f s, %.2f qps (%,d points per query)",
+                qcount, SELECTIVE_HOSTS, qSecs, qcount/qSecs, points / qcount
+            )
+        );
+    }
 }
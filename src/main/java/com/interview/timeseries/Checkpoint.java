@@ -0,0 +1,196 @@
+package com.interview.timeseries;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Snapshot of the in-memory state, so startup loads it instead of
+ * replaying the whole write-ahead log.
+ *
+ * File layout: magic int, version byte, the series definitions (int ID,
+ * metric, tag pairs), then per metric and time block the columns of each
+ * series in the block (sealed chunks as encoded, head and out-of-order
+ * points raw, rollup buckets), and a CRC32 of everything before it.
+ *
+ * capture() copies the state under the store's write lock; writing the
+ * copy happens outside of it.
+ */
+final class Checkpoint {
+    static final int MAGIC = 0x5453434B; // "TSCK"
+    // version 1 files lack the rollups, which are rebuilt on load
+    static final byte VERSION = 2;
+    private static final boolean WINDOWS = System.getProperty("os.name", "").startsWith("Windows");
+
+    /**
+     * Receives the restored state in file order.
+     */
+    interface Loader {
+        Series onSeries(String metric, Map<String, String> tags);
+
+        void onColumns(Series series, long blockStart, SeriesColumns columns);
+    }
+
+    private final List<Series> series;
+    // metric -> block start -> copied columns of each series in the block
+    private final Map<String, Map<Long, Map<Series, SeriesColumns>>> metrics;
+
+    private Checkpoint(List<Series> series, Map<String, Map<Long, Map<Series, SeriesColumns>>> metrics) {
+        this.series = series;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Copy the registry and all metric data. The caller holds the write lock.
+     */
+    static Checkpoint capture(SeriesRegistry registry, Map<String, MetricStore> metricStores) {
+        int n = registry.size();
+        List<Series> series = new ArrayList<>(n);
+        for (int id = 0; id < n; id++) series.add(registry.get(id));
+        Map<String, Map<Long, Map<Series, SeriesColumns>>> metrics = new LinkedHashMap<>();
+        for (Map.Entry<String, MetricStore> m : metricStores.entrySet()) {
+            Map<Long, Map<Series, SeriesColumns>> blocks = new LinkedHashMap<>();
+            for (TimeBlock block : m.getValue().blocks()) {
+                Map<Series, SeriesColumns> cols = new HashMap<>();
+                for (Map.Entry<Series, SeriesColumns> e : block.allColumns()) {
+                    cols.put(e.getKey(), e.getValue().copy());
+                }
+                blocks.put(block.start, cols);
+            }
+            metrics.put(m.getKey(), blocks);
+        }
+        return new Checkpoint(series, metrics);
+    }
+
+    /**
+     * Write the checkpoint to a temporary file, sync it, move it into place
+     * and sync the directory, so the rename is durable before the caller
+     * deletes the segments the checkpoint covers.
+     */
+    void write(Path path) throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(tmp.toFile())) {
+            CRC32 crc = new CRC32();
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new CheckedOutputStream(file, crc), 64 * 1024));
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(series.size());
+            for (Series s : series) {
+                out.writeInt(s.id);
+                writeString(out, s.metric);
+                out.writeInt(s.tags.size());
+                for (Map.Entry<String, String> tag : s.tags.entrySet()) {
+                    writeString(out, tag.getKey());
+                    writeString(out, tag.getValue());
+                }
+            }
+            out.writeInt(metrics.size());
+            for (Map.Entry<String, Map<Long, Map<Series, SeriesColumns>>> m : metrics.entrySet()) {
+                writeString(out, m.getKey());
+                out.writeInt(m.getValue().size());
+                for (Map.Entry<Long, Map<Series, SeriesColumns>> block : m.getValue().entrySet()) {
+                    out.writeLong(block.getKey());
+                    out.writeInt(block.getValue().size());
+                    for (Map.Entry<Series, SeriesColumns> e : block.getValue().entrySet()) {
+                        out.writeInt(e.getKey().id);
+                        e.getValue().writeTo(out);
+                    }
+                }
+            }
+            out.flush();
+            new DataOutputStream(file).writeInt((int) crc.getValue());
+            file.getFD().sync();
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory(path.toAbsolutePath().getParent());
+    }
+
+    /**
+     * Fsync a directory so the entries renamed into it survive a power loss.
+     * Windows cannot open a directory as a channel; there it is skipped.
+     */
+    private static void syncDirectory(Path dir) throws IOException {
+        if (WINDOWS) return;
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Load a checkpoint file through the loader.
+     */
+    static void load(Path path, Loader loader) throws IOException {
+        try (InputStream file = new BufferedInputStream(Files.newInputStream(path), 64 * 1024)) {
+            CRC32 crc = new CRC32();
+            DataInputStream in = new DataInputStream(new CheckedInputStream(file, crc));
+            byte version = 0;
+            if (in.readInt() != MAGIC || (version = in.readByte()) < 1 || version > VERSION) {
+                throw new IOException("not a checkpoint of a supported version: " + path);
+            }
+            // checkpoint IDs -> series registered now
+            Series[] byId = new Series[64];
+            int seriesCount = in.readInt();
+            for (int i = 0; i < seriesCount; i++) {
+                int id = in.readInt();
+                String metric = readString(in);
+                int tagCount = in.readInt();
+                Map<String, String> tags = new HashMap<>(tagCount * 2);
+                for (int t = 0; t < tagCount; t++) tags.put(readString(in), readString(in));
+                if (id >= byId.length) byId = Arrays.copyOf(byId, Math.max(id + 1, byId.length * 2));
+                byId[id] = loader.onSeries(metric, tags);
+            }
+            int metricCount = in.readInt();
+            for (int m = 0; m < metricCount; m++) {
+                readString(in);
+                int blockCount = in.readInt();
+                for (int b = 0; b < blockCount; b++) {
+                    long start = in.readLong();
+                    int columnCount = in.readInt();
+                    for (int c = 0; c < columnCount; c++) {
+                        int id = in.readInt();
+                        SeriesColumns cols = SeriesColumns.readFrom(in, version >= 2);
+                        Series s = id < byId.length ? byId[id] : null;
+                        if (s == null) throw new IOException("undefined series " + id + " in " + path);
+                        loader.onColumns(s, start, cols);
+                    }
+                }
+            }
+            int expected = (int) crc.getValue();
+            if (new DataInputStream(file).readInt() != expected) {
+                throw new IOException("checkpoint checksum mismatch: " + path);
+            }
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
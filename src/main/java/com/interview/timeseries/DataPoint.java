@@ -27,6 +27,17 @@ public class DataPoint {
         this.value = value;
         this.tags = tags != null ? new HashMap<>(tags) : new HashMap<>();
     }
+
+    /**
+     * Creates a data point that shares an interned, immutable tag set
+     * instead of copying it. Used by the store when materializing results.
+     */
+    DataPoint(long timestamp, String metric, double value, TagSet tags) {
+        this.timestamp = timestamp;
+        this.metric = metric;
+        this.value = value;
+        this.tags = tags;
+    }
     
     public long getTimestamp() {
         return timestamp;
@@ -0,0 +1,104 @@
+package com.interview.timeseries;
+
+import java.util.Arrays;
+
+/**
+ * Result of a downsampling query: one aggregated value per fixed time
+ * bucket. Bucket i covers [start + i * step, start + (i + 1) * step);
+ * empty buckets hold the aggregate of no points (0 for COUNT and SUM,
+ * NaN otherwise).
+ */
+public final class DownsampledSeries {
+    private final long start;
+    private final long step;
+    private final Aggregation aggregation;
+    private final double[] values;
+
+    DownsampledSeries(long start, long step, Aggregation aggregation, double[] values) {
+        this.start = start;
+        this.step = step;
+        this.aggregation = aggregation;
+        this.values = values;
+    }
+
+    /**
+     * Fold per bucket partial aggregates into their results.
+     */
+    static DownsampledSeries of(long start, long step, Aggregation aggregation, PartialAggregate[] buckets) {
+        double[] values = new double[buckets.length];
+        for (int i = 0; i < buckets.length; i++) values[i] = buckets[i].result(aggregation);
+        return new DownsampledSeries(start, step, aggregation, values);
+    }
+
+    /**
+     * Empty partial aggregates for the buckets of [timeStart, timeEnd).
+     */
+    static PartialAggregate[] buckets(long timeStart, long timeEnd, long step) {
+        if (step <= 0) throw new IllegalArgumentException("step must be positive");
+        // the span of a range wider than Long.MAX_VALUE only fits unsigned
+        long n = timeEnd <= timeStart ? 0 : Long.divideUnsigned(timeEnd - timeStart - 1, step) + 1;
+        if (Long.compareUnsigned(n, Integer.MAX_VALUE - 8) > 0) {
+            throw new IllegalArgumentException("too many buckets: " + Long.toUnsignedString(n));
+        }
+        PartialAggregate[] buckets = new PartialAggregate[(int) n];
+        for (int i = 0; i < buckets.length; i++) buckets[i] = new PartialAggregate();
+        return buckets;
+    }
+
+    /**
+     * Index of the bucket holding t, for t at or after origin.
+     */
+    static int bucket(long t, long origin, long step) {
+        return (int) Long.divideUnsigned(t - origin, step);
+    }
+
+    /**
+     * End of bucket b, Long.MAX_VALUE if it lies beyond.
+     */
+    static long bucketEnd(long origin, int b, long step) {
+        long n = b + 1L;
+        if (Long.compareUnsigned(step, Long.divideUnsigned(-1L, n)) > 0) return Long.MAX_VALUE;
+        long offset = n * step;
+        return Long.compareUnsigned(offset, Long.MAX_VALUE - origin) > 0 ? Long.MAX_VALUE : origin + offset;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getStep() {
+        return step;
+    }
+
+    public Aggregation getAggregation() {
+        return aggregation;
+    }
+
+    /**
+     * Number of buckets.
+     */
+    public int size() {
+        return values.length;
+    }
+
+    /**
+     * Start time of bucket i.
+     */
+    public long getTimestamp(int i) {
+        return start + i * step;
+    }
+
+    public double getValue(int i) {
+        return values[i];
+    }
+
+    public double[] getValues() {
+        return values.clone();
+    }
+
+    @Override
+    public String toString() {
+        return "DownsampledSeries{start=" + start + ", step=" + step + ", " + aggregation
+            + "=" + Arrays.toString(values) + "}";
+    }
+}
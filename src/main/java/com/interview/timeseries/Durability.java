@@ -0,0 +1,16 @@
+package com.interview.timeseries;
+
+/**
+ * When a write-ahead log record counts as durable, i.e. when insert() returns.
+ */
+public enum Durability {
+    /** Records are fsynced with every group commit batch. */
+    SYNC_EACH_BATCH,
+    /**
+     * Records are acknowledged once written to the OS page cache and fsynced
+     * periodically, see StoreOptions.setSyncIntervalMillis(long).
+     */
+    SYNC_INTERVAL,
+    /** Records are acknowledged once queued and handed to the OS page cache without fsync. */
+    OS_BUFFERED
+}
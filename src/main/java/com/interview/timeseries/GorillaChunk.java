@@ -0,0 +1,243 @@
+package com.interview.timeseries;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Immutable, compressed block of time-sorted points of one series.
+ *
+ * Encoding follows Facebook's Gorilla paper: timestamps are stored as
+ * delta-of-delta with variable length prefixes and values are XORed with
+ * the previous value, keeping only the meaningful bits. Regular series
+ * compress to a couple of bytes per point.
+ */
+final class GorillaChunk {
+    final long minTs;
+    final long maxTs;
+    final int count;
+    private final long[] bits;
+
+    private GorillaChunk(long minTs, long maxTs, int count, long[] bits) {
+        this.minTs = minTs;
+        this.maxTs = maxTs;
+        this.count = count;
+        this.bits = bits;
+    }
+
+    /**
+     * Encode points [from, to) of the given time-sorted columns.
+     */
+    static GorillaChunk encode(long[] timestamps, double[] values, int from, int to) {
+        if (to <= from) throw new IllegalArgumentException("empty chunk");
+        BitWriter out = new BitWriter(Math.max(2, (to - from) / 2));
+        long prevTs = timestamps[from];
+        long prevDelta = 0;
+        long prevBits = Double.doubleToRawLongBits(values[from]);
+        int prevLead = -1, prevTrail = 0;
+        out.write(prevTs, 64);
+        out.write(prevBits, 64);
+        for (int i = from + 1; i < to; i++) {
+            long delta = timestamps[i] - prevTs;
+            writeDeltaOfDelta(out, delta - prevDelta);
+            prevDelta = delta;
+            prevTs = timestamps[i];
+
+            long cur = Double.doubleToRawLongBits(values[i]);
+            long xor = cur ^ prevBits;
+            prevBits = cur;
+            if (xor == 0) {
+                out.write(0, 1);
+                continue;
+            }
+            int lead = Math.min(Long.numberOfLeadingZeros(xor), 31);
+            int trail = Long.numberOfTrailingZeros(xor);
+            if (prevLead >= 0 && lead >= prevLead && trail >= prevTrail) {
+                // meaningful bits fit in the previous window
+                out.write(0b10, 2);
+                out.write(xor >>> prevTrail, 64 - prevLead - prevTrail);
+            } else {
+                int significant = 64 - lead - trail;
+                out.write(0b11, 2);
+                out.write(lead, 5);
+                out.write(significant - 1, 6);
+                out.write(xor >>> trail, significant);
+                prevLead = lead;
+                prevTrail = trail;
+            }
+        }
+        return new GorillaChunk(timestamps[from], timestamps[to - 1], to - from, out.toArray());
+    }
+
+    void writeTo(DataOutput out) throws IOException {
+        out.writeLong(minTs);
+        out.writeLong(maxTs);
+        out.writeInt(count);
+        out.writeInt(bits.length);
+        for (long word : bits) out.writeLong(word);
+    }
+
+    static GorillaChunk readFrom(DataInput in) throws IOException {
+        long minTs = in.readLong();
+        long maxTs = in.readLong();
+        int count = in.readInt();
+        long[] bits = new long[in.readInt()];
+        for (int i = 0; i < bits.length; i++) bits[i] = in.readLong();
+        return new GorillaChunk(minTs, maxTs, count, bits);
+    }
+
+    private static void writeDeltaOfDelta(BitWriter out, long dod) {
+        if (dod == 0) {
+            out.write(0, 1);
+        } else if (dod >= -64 && dod < 64) {
+            out.write(0b10, 2);
+            out.write(dod, 7);
+        } else if (dod >= -256 && dod < 256) {
+            out.write(0b110, 3);
+            out.write(dod, 9);
+        } else if (dod >= -2048 && dod < 2048) {
+            out.write(0b1110, 4);
+            out.write(dod, 12);
+        } else if (dod >= Integer.MIN_VALUE && dod <= Integer.MAX_VALUE) {
+            out.write(0b11110, 5);
+            out.write(dod, 32);
+        } else {
+            out.write(0b11111, 5);
+            out.write(dod, 64);
+        }
+    }
+
+    /**
+     * Approximate heap footprint of the encoded points in bytes.
+     */
+    long sizeInBytes() {
+        return bits.length * 8L;
+    }
+
+    Decoder decoder() {
+        return new Decoder();
+    }
+
+    /**
+     * Decode every point into the arrays, which hold at least count entries.
+     */
+    void decodeInto(long[] timestamps, double[] values) {
+        Decoder dec = new Decoder();
+        for (int i = 0; dec.next(); i++) {
+            timestamps[i] = dec.timestamp();
+            values[i] = dec.value();
+        }
+    }
+
+    /**
+     * Streams the points of the chunk in timestamp order.
+     */
+    final class Decoder {
+        private final BitReader in = new BitReader(bits);
+        private int read;
+        private long timestamp;
+        private long delta;
+        private long valueBits;
+        private int lead, trail;
+
+        boolean next() {
+            if (read == count) return false;
+            if (read == 0) {
+                timestamp = in.read(64);
+                valueBits = in.read(64);
+            } else {
+                delta += readDeltaOfDelta();
+                timestamp += delta;
+                if (in.read(1) != 0) {
+                    if (in.read(1) != 0) {
+                        lead = (int) in.read(5);
+                        int significant = (int) in.read(6) + 1;
+                        trail = 64 - lead - significant;
+                    }
+                    valueBits ^= in.read(64 - lead - trail) << trail;
+                }
+            }
+            read++;
+            return true;
+        }
+
+        private long readDeltaOfDelta() {
+            if (in.read(1) == 0) return 0;
+            if (in.read(1) == 0) return in.readSigned(7);
+            if (in.read(1) == 0) return in.readSigned(9);
+            if (in.read(1) == 0) return in.readSigned(12);
+            if (in.read(1) == 0) return in.readSigned(32);
+            return in.read(64);
+        }
+
+        long timestamp() {
+            return timestamp;
+        }
+
+        double value() {
+            return Double.longBitsToDouble(valueBits);
+        }
+    }
+
+    private static final class BitWriter {
+        private long[] words;
+        private int pos;
+
+        BitWriter(int initialWords) {
+            words = new long[initialWords];
+        }
+
+        /**
+         * Append the low n bits of v (1 <= n <= 64), most significant first.
+         */
+        void write(long v, int n) {
+            if (n < 64) v &= (1L << n) - 1;
+            if (pos + n > words.length * 64) {
+                words = Arrays.copyOf(words, words.length * 2);
+            }
+            int idx = pos >>> 6;
+            int free = 64 - (pos & 63);
+            if (n <= free) {
+                words[idx] |= v << (free - n);
+            } else {
+                int rest = n - free;
+                words[idx] |= v >>> rest;
+                words[idx + 1] |= v << (64 - rest);
+            }
+            pos += n;
+        }
+
+        long[] toArray() {
+            return Arrays.copyOf(words, (pos + 63) >>> 6);
+        }
+    }
+
+    private static final class BitReader {
+        private final long[] words;
+        private int pos;
+
+        BitReader(long[] words) {
+            this.words = words;
+        }
+
+        long read(int n) {
+            int idx = pos >>> 6;
+            int free = 64 - (pos & 63);
+            long r;
+            if (n <= free) {
+                r = words[idx] >>> (free - n);
+            } else {
+                int rest = n - free;
+                r = (words[idx] << rest) | (words[idx + 1] >>> (64 - rest));
+            }
+            pos += n;
+            return n == 64 ? r : r & ((1L << n) - 1);
+        }
+
+        long readSigned(int n) {
+            long r = read(n);
+            return (r << (64 - n)) >> (64 - n);
+        }
+    }
+}
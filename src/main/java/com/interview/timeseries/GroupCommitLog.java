@@ -0,0 +1,302 @@
+package com.interview.timeseries;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Group commit in front of a segmented write-ahead log.
+ *
+ * Inserting threads only encode their record into the current segment's
+ * buffer and get a future. A single flusher thread writes everything
+ * buffered so far in one batch. With SYNC_EACH_BATCH it fsyncs the batch
+ * before completing its futures; with SYNC_INTERVAL futures complete once
+ * the batch is written and the fsync follows on the interval; with
+ * OS_BUFFERED futures are complete as soon as the record is queued.
+ * Callers must not wait on the future while holding store locks, so other
+ * writers can join the next batch.
+ *
+ * Once a segment reaches the configured size, or rotate() is called, new
+ * records go to the next segment; the flusher writes out and closes the
+ * retired one first, so records stay in log order across segments.
+ */
+final class GroupCommitLog implements Closeable {
+    private final WalSegments segments;
+    private final long segmentSizeBytes;
+    private final Durability durability;
+    private final long syncIntervalMillis;
+    private final Object lock = new Object();
+    private final Thread flusher;
+    // appenders wait once this much is queued for the flusher
+    private static final int MAX_QUEUED_BYTES = 8 * 1024 * 1024;
+    // guarded by lock
+    private WalWriter current;
+    private long currentIndex;
+    private List<WalWriter> retired = new ArrayList<>();
+    // segments below this index are written and closed
+    private long closedBelow;
+    private List<CompletableFuture<Void>> pending = new ArrayList<>();
+    // records appended since the flusher last drained the current segment
+    private boolean queuedRecords;
+    private boolean closed;
+    private IOException failure;
+    // flusher thread only: written but not yet fsynced (SYNC_INTERVAL)
+    private boolean unsynced;
+    private long lastSyncNanos = System.nanoTime();
+
+    GroupCommitLog(WalSegments segments, long firstSegment, long segmentSizeBytes,
+                   Durability durability, long syncIntervalMillis) throws IOException {
+        this.segments = segments;
+        this.segmentSizeBytes = segmentSizeBytes;
+        this.durability = durability;
+        this.syncIntervalMillis = syncIntervalMillis;
+        this.current = WalWriter.open(segments.segment(firstSegment));
+        this.currentIndex = firstSegment;
+        this.closedBelow = firstSegment;
+        this.flusher = new Thread(this::run, "wal-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Queue a point record.
+     * @return A future completed once the record is durable under the configured mode
+     */
+    CompletableFuture<Void> append(Series series, long timestamp, double value) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        synchronized (lock) {
+            if (!accepting(done)) return done;
+            current.append(series, timestamp, value);
+            queued(done);
+        }
+        return done;
+    }
+
+    /**
+     * Queue points [from, to) of a batch as one group of records. Runs of
+     * the same series share a grouped record.
+     * @param series The series of each point, or null if all belong to `single`
+     * @return A future completed once the whole batch is durable
+     */
+    CompletableFuture<Void> appendBatch(Series[] series, Series single, long[] timestamps, double[] values,
+                                        int from, int to) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        synchronized (lock) {
+            if (!accepting(done)) return done;
+            if (series == null) {
+                current.append(single, timestamps, values, from, to);
+            } else {
+                for (int i = from; i < to; ) {
+                    int run = i + 1;
+                    while (run < to && series[run] == series[i]) run++;
+                    current.append(series[i], timestamps, values, i, run);
+                    i = run;
+                }
+            }
+            queued(done);
+        }
+        return done;
+    }
+
+    private boolean accepting(CompletableFuture<Void> done) {
+        if (closed || failure != null) {
+            done.completeExceptionally(failure != null ? failure : new IOException("log is closed"));
+            return false;
+        }
+        return true;
+    }
+
+    private void queued(CompletableFuture<Void> done) {
+        if (durability == Durability.OS_BUFFERED) {
+            done.complete(null);
+        } else {
+            pending.add(done);
+        }
+        if (!queuedRecords) {
+            queuedRecords = true;
+            lock.notifyAll();
+        }
+        if (current.size() >= segmentSizeBytes) {
+            try {
+                rotateLocked();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        // back pressure when appenders outrun the disk
+        while (current.buffered() >= MAX_QUEUED_BYTES && failure == null && !closed) {
+            try {
+                lock.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Start a new segment. Records appended before this call are in
+     * segments with a lower index, records appended after it are not.
+     * @return The index of the new segment
+     */
+    long rotate() throws IOException {
+        synchronized (lock) {
+            if (closed) throw new IOException("log is closed");
+            return rotateLocked();
+        }
+    }
+
+    long currentSegment() {
+        synchronized (lock) {
+            return currentIndex;
+        }
+    }
+
+    /**
+     * Wait until the flusher has written and closed every segment below index.
+     */
+    void awaitClosedBelow(long index) throws IOException {
+        synchronized (lock) {
+            while (closedBelow < index && failure == null && !closed) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted while waiting for the log", e);
+                }
+            }
+            if (failure != null) throw failure;
+        }
+    }
+
+    private long rotateLocked() throws IOException {
+        WalWriter next = WalWriter.open(segments.segment(currentIndex + 1));
+        retired.add(current);
+        current = next;
+        currentIndex++;
+        lock.notifyAll();
+        return currentIndex;
+    }
+
+    private void run() {
+        List<CompletableFuture<Void>> spareList = new ArrayList<>();
+        List<CompletableFuture<Void>> batchFutures = spareList;
+        try {
+            while (true) {
+                List<WalWriter> retiring;
+                List<ByteBuffer> retiringBatches = new ArrayList<>();
+                WalWriter writer;
+                long writerIndex;
+                ByteBuffer batch;
+                boolean exit;
+                synchronized (lock) {
+                    while (!queuedRecords && retired.isEmpty() && !closed) {
+                        // with records awaiting an interval fsync, wake up when it is due
+                        long dueIn = unsynced ? syncDueInMillis() : 0;
+                        if (unsynced && dueIn <= 0) break;
+                        try {
+                            lock.wait(dueIn);
+                        } catch (InterruptedException e) {
+                            closed = true;
+                        }
+                    }
+                    exit = closed;
+                    retiring = retired;
+                    retired = new ArrayList<>();
+                    for (WalWriter w : retiring) retiringBatches.add(w.drain());
+                    writer = current;
+                    writerIndex = currentIndex;
+                    batch = writer.hasBuffered() ? writer.drain() : null;
+                    queuedRecords = false;
+                    batchFutures = pending;
+                    pending = spareList;
+                    // wake appenders held back by a full buffer
+                    lock.notifyAll();
+                }
+                for (int i = 0; i < retiring.size(); i++) {
+                    WalWriter w = retiring.get(i);
+                    w.write(retiringBatches.get(i));
+                    if (durability != Durability.OS_BUFFERED) w.sync();
+                    w.close();
+                }
+                if (batch != null) writer.write(batch);
+                commit(writer, batch != null, batchFutures, exit);
+                synchronized (lock) {
+                    if (batch != null) writer.recycle(batch);
+                    if (!retiring.isEmpty()) {
+                        closedBelow = writerIndex;
+                        lock.notifyAll();
+                    }
+                }
+                batchFutures.clear();
+                spareList = batchFutures;
+                if (exit) return;
+            }
+        } catch (Throwable t) {
+            // the log cannot continue after a failed write: fail every waiter
+            // instead of leaving them blocked on a dead flusher
+            fail(t instanceof IOException ? (IOException) t : new IOException("log flusher failed", t), batchFutures);
+        }
+    }
+
+    private long syncDueInMillis() {
+        return syncIntervalMillis - (System.nanoTime() - lastSyncNanos) / 1_000_000;
+    }
+
+    private void commit(WalWriter writer, boolean wrote, List<CompletableFuture<Void>> written, boolean closing)
+            throws IOException {
+        switch (durability) {
+            case SYNC_EACH_BATCH:
+                if (wrote) writer.sync();
+                completeAll(written);
+                break;
+            case SYNC_INTERVAL:
+                completeAll(written);
+                unsynced |= wrote;
+                if (unsynced && (closing || syncDueInMillis() <= 0)) {
+                    writer.sync();
+                    lastSyncNanos = System.nanoTime();
+                    unsynced = false;
+                }
+                break;
+            default:
+                // OS_BUFFERED futures completed when queued
+        }
+    }
+
+    private static void completeAll(List<CompletableFuture<Void>> futures) {
+        for (CompletableFuture<Void> f : futures) f.complete(null);
+    }
+
+    private void fail(IOException e, List<CompletableFuture<Void>> batchFutures) {
+        List<CompletableFuture<Void>> queued;
+        synchronized (lock) {
+            failure = e;
+            queued = pending;
+            pending = new ArrayList<>();
+            lock.notifyAll();
+        }
+        for (CompletableFuture<Void> f : batchFutures) f.completeExceptionally(e);
+        for (CompletableFuture<Void> f : queued) f.completeExceptionally(e);
+    }
+
+    /**
+     * Write and sync everything queued, then close the current segment.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        current.close();
+    }
+}
@@ -0,0 +1,73 @@
+package com.interview.timeseries;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The newest point of each series of one metric, updated on every append,
+ * so "last value" lookups need neither the blocks nor their columns.
+ *
+ * Guarded by the metric's lock like the rest of MetricStore.
+ */
+final class LatestPoints {
+    // series -> slot in the arrays below
+    private final Map<Series, Integer> slots = new HashMap<>();
+    private Series[] series = new Series[16];
+    private long[] timestamps = new long[16];
+    private double[] values = new double[16];
+    private int size;
+
+    /**
+     * Record a point if it is not older than the series' latest one; of
+     * points with equal timestamps the last one added wins, as in queries.
+     */
+    void update(Series s, long timestamp, double value) {
+        Integer slot = slots.get(s);
+        if (slot == null) {
+            if (size == series.length) {
+                series = Arrays.copyOf(series, size * 2);
+                timestamps = Arrays.copyOf(timestamps, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            slots.put(s, size);
+            series[size] = s;
+            timestamps[size] = timestamp;
+            values[size++] = value;
+        } else if (timestamp >= timestamps[slot]) {
+            timestamps[slot] = timestamp;
+            values[slot] = value;
+        }
+    }
+
+    /**
+     * Newest point of every series selected by the filter, in series creation order.
+     */
+    List<DataPoint> select(TagFilter filter) {
+        List<DataPoint> result = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            if (filter.matches(series[i].tags)) result.add(series[i].toPoint(timestamps[i], values[i]));
+        }
+        return result;
+    }
+
+    /**
+     * Forget series whose latest point is older than the cutoff: retention
+     * evicted all of their points.
+     */
+    void evictBefore(long cutoff) {
+        int kept = 0;
+        slots.clear();
+        for (int i = 0; i < size; i++) {
+            if (timestamps[i] < cutoff) continue;
+            series[kept] = series[i];
+            timestamps[kept] = timestamps[i];
+            values[kept] = values[i];
+            slots.put(series[kept], kept++);
+        }
+        Arrays.fill(series, kept, size, null);
+        size = kept;
+    }
+}
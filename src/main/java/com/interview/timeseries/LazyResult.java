@@ -0,0 +1,97 @@
+package com.interview.timeseries;
+
+import java.util.AbstractList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.function.Supplier;
+
+/**
+ * Immutable query result over captured series snapshots, merged on demand.
+ *
+ * Creating it costs nothing beyond the capture. Iterating before any
+ * indexed access streams the points straight from a merge cursor; the
+ * first get() or size() merges the snapshots into a QueryResult once, and
+ * every later access reads from it. Snapshots do not change, so the points
+ * are the same whenever the merge happens.
+ */
+final class LazyResult extends AbstractList<DataPoint> implements RandomAccess {
+    private final String metric;
+    // both dropped after the merge so the snapshots can be collected
+    private Supplier<QueryResult> merge;
+    private Supplier<SeriesCursor> cursor;
+    private volatile QueryResult merged;
+
+    /**
+     * @param merge  Merges the snapshots into columns
+     * @param cursor Opens a new cursor over the snapshots, in result order
+     */
+    LazyResult(String metric, Supplier<QueryResult> merge, Supplier<SeriesCursor> cursor) {
+        this.metric = metric;
+        this.merge = merge;
+        this.cursor = cursor;
+    }
+
+    /**
+     * @return The merged columns, merging them on the first call
+     */
+    QueryResult merged() {
+        QueryResult result = merged;
+        if (result != null) return result;
+        synchronized (this) {
+            if (merged == null) {
+                merged = merge.get();
+                merge = null;
+                cursor = null;
+            }
+            return merged;
+        }
+    }
+
+    /**
+     * @return A cursor over the points, streaming if not merged yet
+     */
+    SeriesCursor cursor() {
+        Supplier<SeriesCursor> open;
+        synchronized (this) {
+            open = cursor;
+        }
+        return open != null ? open.get() : new ListCursor(merged());
+    }
+
+    @Override
+    public DataPoint get(int index) {
+        return merged().get(index);
+    }
+
+    @Override
+    public int size() {
+        return merged().size();
+    }
+
+    @Override
+    public Iterator<DataPoint> iterator() {
+        if (merged != null) return merged.iterator();
+        SeriesCursor c = cursor();
+        return new Iterator<DataPoint>() {
+            private boolean ready;
+            private boolean more;
+
+            @Override
+            public boolean hasNext() {
+                if (!ready) {
+                    more = c.next();
+                    ready = true;
+                }
+                return more;
+            }
+
+            @Override
+            public DataPoint next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                ready = false;
+                return new DataPoint(c.timestamp(), metric, c.value(), c.tags());
+            }
+        };
+    }
+}
@@ -0,0 +1,72 @@
+package com.interview.timeseries;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cursor over an already materialized query result; series IDs are
+ * numbered by first appearance of each tag set.
+ *
+ * A QueryResult is read straight from its columns, so no DataPoint is
+ * created; any other list gets one get() per point.
+ */
+final class ListCursor implements SeriesCursor {
+    private final List<DataPoint> points;
+    // the same list when it is stored column-wise, else null
+    private final QueryResult columns;
+    private final Map<Map<String, String>, Integer> ids = new HashMap<>();
+    private int pos = -1;
+    // current point, only for lists that are not a QueryResult
+    private DataPoint current;
+    private Map<String, String> tags;
+    private int seriesId;
+
+    ListCursor(List<DataPoint> points) {
+        this.points = points;
+        this.columns = points instanceof QueryResult ? (QueryResult) points : null;
+    }
+
+    /**
+     * Cursor over a query result, streaming it if it has not been merged yet.
+     */
+    static SeriesCursor of(List<DataPoint> points) {
+        return points instanceof LazyResult ? ((LazyResult) points).cursor() : new ListCursor(points);
+    }
+
+    @Override
+    public boolean next() {
+        if (++pos >= points.size()) return false;
+        Map<String, String> next;
+        if (columns != null) {
+            next = columns.series(pos).tags;
+        } else {
+            current = points.get(pos);
+            next = current.getTags();
+        }
+        // consecutive points mostly share their series' tags instance
+        if (pos == 0 || next != tags) seriesId = ids.computeIfAbsent(next, k -> ids.size());
+        tags = next;
+        return true;
+    }
+
+    @Override
+    public long timestamp() {
+        return columns != null ? columns.timestamp(pos) : current.getTimestamp();
+    }
+
+    @Override
+    public double value() {
+        return columns != null ? columns.value(pos) : current.getValue();
+    }
+
+    @Override
+    public int seriesId() {
+        return seriesId;
+    }
+
+    @Override
+    public Map<String, String> tags() {
+        return tags;
+    }
+}
@@ -0,0 +1,104 @@
+package com.interview.timeseries;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The data of one metric, partitioned into fixed time blocks.
+ *
+ * Each metric has its own lock, so writers to different metrics and
+ * readers of unrelated metrics never wait for each other. Callers hold it
+ * (write for changes, read for queries) around every method below.
+ */
+final class MetricStore {
+    final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // block start -> block, in time order
+    private final NavigableMap<Long, TimeBlock> blocks = new TreeMap<>();
+    // blocks starting before this are sealed
+    private long sealedBefore = Long.MIN_VALUE;
+    // series columns holding late points not yet merged
+    private final Set<SeriesColumns> pendingMerges = Collections.newSetFromMap(new IdentityHashMap<>());
+    final LatestPoints latest = new LatestPoints();
+
+    /**
+     * Add a point to the block holding it, remembering series with late points.
+     */
+    void append(Series series, long timestamp, double value) {
+        SeriesColumns late = blockFor(timestamp).append(series, timestamp, value);
+        if (late != null) pendingMerges.add(late);
+        latest.update(series, timestamp, value);
+    }
+
+    /**
+     * Put columns restored from a checkpoint into the block starting at blockStart.
+     */
+    void restore(Series series, long blockStart, SeriesColumns columns) {
+        blockFor(blockStart).restore(series, columns);
+        if (columns.outOfOrderSize() > 0) pendingMerges.add(columns);
+        if (columns.size() > 0) latest.update(series, columns.lastTimestamp(), columns.lastValue());
+    }
+
+    /**
+     * Merge buffered out-of-order points into their series columns.
+     */
+    void mergeOutOfOrder() {
+        for (SeriesColumns cols : pendingMerges) cols.mergeOutOfOrder();
+        pendingMerges.clear();
+    }
+
+    /**
+     * Block holding the given timestamp, created on first use. Creating a
+     * new newest block seals blocks that fell out of the write window.
+     */
+    TimeBlock blockFor(long timestamp) {
+        long start = TimeBlock.alignedStart(timestamp);
+        TimeBlock block = blocks.get(start);
+        if (block == null) {
+            block = new TimeBlock(start);
+            boolean newest = blocks.isEmpty() || start > blocks.lastKey();
+            blocks.put(start, block);
+            long writableFrom = start < Long.MIN_VALUE + TimeBlock.BLOCK_MILLIS
+                ? Long.MIN_VALUE : start - TimeBlock.BLOCK_MILLIS;
+            if (newest && writableFrom > sealedBefore) {
+                // keep the previous block writable for slightly late points
+                for (TimeBlock stale : blocks.subMap(sealedBefore, true, writableFrom, false).values()) {
+                    stale.seal();
+                }
+                sealedBefore = writableFrom;
+            }
+        }
+        return block;
+    }
+
+    /**
+     * Blocks whose range intersects [timeStart, timeEnd), oldest first.
+     */
+    Collection<TimeBlock> blocksOverlapping(long timeStart, long timeEnd) {
+        if (timeStart >= timeEnd) return Collections.emptyList();
+        return blocks.subMap(TimeBlock.alignedStart(timeStart), true, timeEnd, false).values();
+    }
+
+    Collection<TimeBlock> blocks() {
+        return blocks.values();
+    }
+
+    /**
+     * Drop every block that ends at or before the cutoff and trim the block
+     * straddling it.
+     */
+    void evictBefore(long cutoff) {
+        blocks.headMap(TimeBlock.alignedStart(cutoff), false).clear();
+        TimeBlock straddling = blocks.get(TimeBlock.alignedStart(cutoff));
+        if (straddling != null) straddling.evictBefore(cutoff);
+        latest.evictBefore(cutoff);
+    }
+
+    boolean isEmpty() {
+        return blocks.isEmpty();
+    }
+}
@@ -0,0 +1,47 @@
+package com.interview.timeseries;
+
+/**
+ * Running count/sum/min/max of a set of values. Partials of disjoint sets
+ * (series, blocks, shards) merge into the partial of their union.
+ */
+final class PartialAggregate {
+    long count;
+    double sum;
+    double min = Double.POSITIVE_INFINITY;
+    double max = Double.NEGATIVE_INFINITY;
+
+    void add(double value) {
+        count++;
+        sum += value;
+        if (value < min) min = value;
+        if (value > max) max = value;
+    }
+
+    void merge(PartialAggregate other) {
+        merge(other.count, other.sum, other.min, other.max);
+    }
+
+    void merge(long count, double sum, double min, double max) {
+        this.count += count;
+        this.sum += sum;
+        this.min = Math.min(this.min, min);
+        this.max = Math.max(this.max, max);
+    }
+
+    double result(Aggregation aggregation) {
+        switch (aggregation) {
+            case COUNT:
+                return count;
+            case SUM:
+                return sum;
+            case MIN:
+                return count == 0 ? Double.NaN : min;
+            case MAX:
+                return count == 0 ? Double.NaN : max;
+            case AVG:
+                return count == 0 ? Double.NaN : sum / count;
+            default:
+                throw new IllegalArgumentException("unknown aggregation " + aggregation);
+        }
+    }
+}
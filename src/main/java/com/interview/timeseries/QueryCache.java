@@ -0,0 +1,177 @@
+package com.interview.timeseries;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Bounded LRU cache of query results, keyed by the normalized query
+ * parameters (see key()).
+ *
+ * An entry is dropped when an insert lands inside its metric and time
+ * range, so results over closed time windows stay cached while ranges
+ * reaching "now" are recomputed after new points arrive. Capacity is a cost
+ * budget: points of a list result, buckets of a downsampled one, and at
+ * least 1 per entry so empty results are bounded too.
+ *
+ * A query reserves its entry before capturing anything and fills it once
+ * computed; inserts in between invalidate the reservation, so a result
+ * missing those points is never cached. Cached values are immutable.
+ *
+ * Inserts check the ranges of their metric's entries without the cache
+ * lock and only take it when one of them overlaps, so inserts outside
+ * every cached window, or with the cache cold, add no contention.
+ */
+final class QueryCache {
+    private final long capacity;
+    private long cost;
+    // access ordered, least recently used first
+    private final LinkedHashMap<List<Object>, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // metric -> its entries, copy-on-write so inserts can scan them without the cache lock
+    private final ConcurrentMap<String, List<Entry>> byMetric = new ConcurrentHashMap<>();
+
+    QueryCache(long capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Cache key of a query; equal parameters and structurally equal filters
+     * give equal keys. The rest holds the query kind and its other parameters.
+     */
+    static List<Object> key(String metric, long timeStart, long timeEnd, TagFilter filter, Object... rest) {
+        List<Object> key = new ArrayList<>(4 + rest.length);
+        key.add(metric);
+        key.add(timeStart);
+        key.add(timeEnd);
+        key.add(filter);
+        for (Object o : rest) key.add(o);
+        return key;
+    }
+
+    /**
+     * @return The cached result, or null
+     */
+    synchronized Object get(List<Object> key) {
+        Entry e = entries.get(key);
+        return e == null ? null : e.value;
+    }
+
+    /**
+     * Reserve an entry for a query about to run, before it captures any data.
+     */
+    synchronized Entry reserve(List<Object> key, String metric, long timeStart, long timeEnd) {
+        Entry e = new Entry(key, metric, timeStart, timeEnd);
+        Entry old = entries.put(key, e);
+        if (old != null) unlink(old);
+        byMetric.computeIfAbsent(metric, m -> new CopyOnWriteArrayList<>()).add(e);
+        return e;
+    }
+
+    /**
+     * Drop a reserved entry whose query failed before completing it.
+     */
+    synchronized void release(Entry e) {
+        if (e.value == null) remove(e);
+    }
+
+    /**
+     * Store the result of a reserved entry unless an insert invalidated it meanwhile.
+     */
+    synchronized void complete(Entry e, Object value, long valueCost) {
+        if (e.invalid || entries.get(e.key) != e) return;
+        valueCost = Math.max(1, valueCost);
+        if (valueCost > capacity) {
+            remove(e);
+            return;
+        }
+        e.value = value;
+        e.cost = valueCost;
+        cost += valueCost;
+        for (Iterator<Entry> it = entries.values().iterator(); cost > capacity && it.hasNext(); ) {
+            Entry lru = it.next();
+            if (lru == e) continue;
+            it.remove();
+            unlink(lru);
+        }
+    }
+
+    /**
+     * Drop the metric's entries whose range intersects [timeStart, timeEnd].
+     * Called by inserts under the metric's write lock.
+     */
+    void invalidate(String metric, long timeStart, long timeEnd) {
+        List<Entry> unlocked = byMetric.get(metric);
+        if (unlocked == null || !overlapsAny(unlocked, timeStart, timeEnd)) return;
+        synchronized (this) {
+            List<Entry> list = byMetric.get(metric);
+            if (list == null) return;
+            for (Entry e : list) {
+                if (e.overlaps(timeStart, timeEnd)) {
+                    e.invalid = true;
+                    remove(e);
+                }
+            }
+        }
+    }
+
+    private static boolean overlapsAny(List<Entry> entries, long timeStart, long timeEnd) {
+        for (Entry e : entries) {
+            if (e.overlaps(timeStart, timeEnd)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return The number of entries, reserved or completed
+     */
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized void clear() {
+        for (Entry e : entries.values()) e.invalid = true;
+        entries.clear();
+        byMetric.clear();
+        cost = 0;
+    }
+
+    private void remove(Entry e) {
+        if (entries.get(e.key) == e) entries.remove(e.key);
+        unlink(e);
+    }
+
+    private void unlink(Entry e) {
+        cost -= e.cost;
+        e.cost = 0;
+        List<Entry> list = byMetric.get(e.metric);
+        if (list == null) return;
+        list.remove(e);
+        if (list.isEmpty()) byMetric.remove(e.metric);
+    }
+
+    static final class Entry {
+        final List<Object> key;
+        final String metric;
+        final long timeStart;
+        final long timeEnd;
+        // null while the query runs
+        Object value;
+        long cost;
+        boolean invalid;
+
+        Entry(List<Object> key, String metric, long timeStart, long timeEnd) {
+            this.key = key;
+            this.metric = metric;
+            this.timeStart = timeStart;
+            this.timeEnd = timeEnd;
+        }
+
+        boolean overlaps(long timeStart, long timeEnd) {
+            return this.timeStart <= timeEnd && timeStart < this.timeEnd;
+        }
+    }
+}
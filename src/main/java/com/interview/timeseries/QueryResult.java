@@ -0,0 +1,111 @@
+package com.interview.timeseries;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+/**
+ * Immutable result of a query, stored column-wise.
+ *
+ * Points are kept as parallel timestamp / value columns plus the series of
+ * each point, and DataPoints are only created on access. A result over a
+ * single series' head shares the head arrays instead of copying them; this
+ * is safe because the head is append-only below its captured length.
+ */
+final class QueryResult extends AbstractList<DataPoint> implements RandomAccess {
+    private final long[] timestamps;
+    private final double[] values;
+    private final int offset;
+    private final int size;
+    // series of each point, or null if all points belong to `single`
+    private final Series[] series;
+    private final Series single;
+
+    private QueryResult(long[] timestamps, double[] values, int offset, int size, Series[] series, Series single) {
+        this.timestamps = timestamps;
+        this.values = values;
+        this.offset = offset;
+        this.size = size;
+        this.series = series;
+        this.single = single;
+    }
+
+    /**
+     * View of size points of one series starting at offset in the given columns.
+     */
+    static QueryResult view(Series series, long[] timestamps, double[] values, int offset, int size) {
+        return new QueryResult(timestamps, values, offset, size, null, series);
+    }
+
+    @Override
+    public DataPoint get(int index) {
+        return series(index).toPoint(timestamps[offset + index], values[offset + index]);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    long timestamp(int index) {
+        Objects.checkIndex(index, size);
+        return timestamps[offset + index];
+    }
+
+    double value(int index) {
+        Objects.checkIndex(index, size);
+        return values[offset + index];
+    }
+
+    Series series(int index) {
+        Objects.checkIndex(index, size);
+        return series != null ? series[index] : single;
+    }
+
+    /**
+     * Collects points in result order.
+     */
+    static final class Builder {
+        private long[] timestamps = new long[16];
+        private double[] values = new double[16];
+        private Series[] series = new Series[16];
+        private int size;
+
+        void add(Series s, long timestamp, double value) {
+            if (size == timestamps.length) {
+                timestamps = Arrays.copyOf(timestamps, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+                series = Arrays.copyOf(series, size * 2);
+            }
+            timestamps[size] = timestamp;
+            values[size] = value;
+            series[size++] = s;
+        }
+
+        QueryResult build() {
+            return new QueryResult(timestamps, values, 0, size, series, null);
+        }
+
+        /**
+         * The points of the builders one after the other.
+         */
+        static QueryResult concat(List<Builder> parts) {
+            if (parts.size() == 1) return parts.get(0).build();
+            int size = 0;
+            for (Builder b : parts) size += b.size;
+            Builder all = new Builder();
+            all.timestamps = new long[size];
+            all.values = new double[size];
+            all.series = new Series[size];
+            for (Builder b : parts) {
+                System.arraycopy(b.timestamps, 0, all.timestamps, all.size, b.size);
+                System.arraycopy(b.values, 0, all.values, all.size, b.size);
+                System.arraycopy(b.series, 0, all.series, all.size, b.size);
+                all.size += b.size;
+            }
+            return all.build();
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.interview.timeseries;
+
+/**
+ * Receives write-ahead log replay progress during initialize(), see
+ * StoreOptions.setRecoveryProgress(RecoveryProgress).
+ */
+@FunctionalInterface
+public interface RecoveryProgress {
+    /**
+     * Called after each window of segments is applied, on the initializing thread.
+     * @param replayed Segments replayed so far
+     * @param total Segments to replay
+     * @param points Points replayed so far
+     */
+    void segmentsReplayed(int replayed, int total, long points);
+}
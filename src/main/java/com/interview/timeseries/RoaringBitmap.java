@@ -0,0 +1,716 @@
+package com.interview.timeseries;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * Compressed bitmap of non-negative ints, organised like Roaring bitmaps.
+ *
+ * Values are split by their high 16 bits into containers holding the low
+ * 16 bits. A container is a sorted array while it has at most 4096 values,
+ * a 8KB bitmap above that, or a list of runs when runOptimize() finds that
+ * smaller. Memory therefore scales with the number of set bits rather than
+ * the largest value, unlike java.util.BitSet.
+ */
+final class RoaringBitmap {
+    private static final int ARRAY_MAX = 4096;
+
+    private char[] keys = new char[2];
+    private Container[] containers = new Container[2];
+    private int size;
+
+    static RoaringBitmap of(int... values) {
+        RoaringBitmap bm = new RoaringBitmap();
+        for (int v : values) bm.add(v);
+        return bm;
+    }
+
+    void add(int x) {
+        char high = (char) (x >>> 16);
+        int i = findKey(high);
+        if (i >= 0) {
+            containers[i] = containers[i].add((char) x);
+        } else {
+            insertAt(-i - 1, high, new ArrayContainer().add((char) x));
+        }
+    }
+
+    void remove(int x) {
+        int i = findKey((char) (x >>> 16));
+        if (i < 0) return;
+        Container c = containers[i].remove((char) x);
+        if (c.cardinality() == 0) {
+            removeAt(i);
+        } else {
+            containers[i] = c;
+        }
+    }
+
+    boolean contains(int x) {
+        int i = findKey((char) (x >>> 16));
+        return i >= 0 && containers[i].contains((char) x);
+    }
+
+    int cardinality() {
+        int card = 0;
+        for (int i = 0; i < size; i++) card += containers[i].cardinality();
+        return card;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Convert each container to its smallest representation, including runs.
+     */
+    void runOptimize() {
+        for (int i = 0; i < size; i++) containers[i] = containers[i].runOptimize();
+    }
+
+    /**
+     * Approximate heap footprint in bytes.
+     */
+    long sizeInBytes() {
+        long bytes = 16 + keys.length * 2L + containers.length * 4L;
+        for (int i = 0; i < size; i++) bytes += containers[i].sizeInBytes();
+        return bytes;
+    }
+
+    RoaringBitmap copy() {
+        RoaringBitmap bm = new RoaringBitmap();
+        bm.keys = Arrays.copyOf(keys, Math.max(2, size));
+        bm.containers = new Container[bm.keys.length];
+        for (int i = 0; i < size; i++) bm.containers[i] = containers[i].copy();
+        bm.size = size;
+        return bm;
+    }
+
+    int[] toArray() {
+        int[] out = new int[cardinality()];
+        int n = 0;
+        for (PrimitiveIterator.OfInt it = iterator(); it.hasNext(); ) out[n++] = it.nextInt();
+        return out;
+    }
+
+    /**
+     * Iterate the set values in ascending order.
+     */
+    PrimitiveIterator.OfInt iterator() {
+        return new PrimitiveIterator.OfInt() {
+            private int ci;
+            private CharIterator cur = size > 0 ? containers[0].iterator() : null;
+
+            @Override
+            public boolean hasNext() {
+                while (cur != null && !cur.hasNext()) {
+                    cur = ++ci < size ? containers[ci].iterator() : null;
+                }
+                return cur != null;
+            }
+
+            @Override
+            public int nextInt() {
+                if (!hasNext()) throw new NoSuchElementException();
+                return (keys[ci] << 16) | cur.next();
+            }
+        };
+    }
+
+    static RoaringBitmap and(RoaringBitmap a, RoaringBitmap b) {
+        RoaringBitmap out = new RoaringBitmap();
+        int i = 0, j = 0;
+        while (i < a.size && j < b.size) {
+            int c = Character.compare(a.keys[i], b.keys[j]);
+            if (c < 0) {
+                i++;
+            } else if (c > 0) {
+                j++;
+            } else {
+                Container r = Container.and(a.containers[i], b.containers[j]);
+                if (r.cardinality() > 0) out.append(a.keys[i], r);
+                i++;
+                j++;
+            }
+        }
+        return out;
+    }
+
+    static RoaringBitmap or(RoaringBitmap a, RoaringBitmap b) {
+        RoaringBitmap out = new RoaringBitmap();
+        int i = 0, j = 0;
+        while (i < a.size || j < b.size) {
+            int c = i == a.size ? 1 : j == b.size ? -1 : Character.compare(a.keys[i], b.keys[j]);
+            if (c < 0) {
+                out.append(a.keys[i], a.containers[i].copy());
+                i++;
+            } else if (c > 0) {
+                out.append(b.keys[j], b.containers[j].copy());
+                j++;
+            } else {
+                out.append(a.keys[i], Container.or(a.containers[i], b.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return out;
+    }
+
+    static RoaringBitmap andNot(RoaringBitmap a, RoaringBitmap b) {
+        RoaringBitmap out = new RoaringBitmap();
+        int j = 0;
+        for (int i = 0; i < a.size; i++) {
+            while (j < b.size && b.keys[j] < a.keys[i]) j++;
+            if (j < b.size && b.keys[j] == a.keys[i]) {
+                Container r = Container.andNot(a.containers[i], b.containers[j]);
+                if (r.cardinality() > 0) out.append(a.keys[i], r);
+            } else {
+                out.append(a.keys[i], a.containers[i].copy());
+            }
+        }
+        return out;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+
+    private int findKey(char high) {
+        // keys are appended in order in the common case, check the last one first
+        if (size > 0 && keys[size - 1] == high) return size - 1;
+        return Arrays.binarySearch(keys, 0, size, high);
+    }
+
+    private void append(char high, Container c) {
+        insertAt(size, high, c);
+    }
+
+    private void insertAt(int i, char high, Container c) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+        }
+        System.arraycopy(keys, i, keys, i + 1, size - i);
+        System.arraycopy(containers, i, containers, i + 1, size - i);
+        keys[i] = high;
+        containers[i] = c;
+        size++;
+    }
+
+    private void removeAt(int i) {
+        System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+        System.arraycopy(containers, i + 1, containers, i, size - i - 1);
+        containers[--size] = null;
+    }
+
+    private interface CharIterator {
+        boolean hasNext();
+
+        char next();
+    }
+
+    /**
+     * Set of 16-bit values. Mutators return the container to use afterwards,
+     * which is a different representation once a size threshold is crossed.
+     */
+    private abstract static class Container {
+        abstract Container add(char x);
+
+        abstract Container remove(char x);
+
+        abstract boolean contains(char x);
+
+        abstract int cardinality();
+
+        abstract CharIterator iterator();
+
+        abstract Container copy();
+
+        abstract long sizeInBytes();
+
+        abstract int numberOfRuns();
+
+        /**
+         * Array for sparse contents, bitmap for dense ones. Runs are expanded.
+         */
+        Container unrun() {
+            return this;
+        }
+
+        Container runOptimize() {
+            int card = cardinality();
+            long runBytes = 4L * numberOfRuns();
+            long arrayBytes = 2L * card;
+            long bitmapBytes = 8192;
+            if (runBytes < Math.min(arrayBytes, bitmapBytes)) {
+                return this instanceof RunContainer ? this : RunContainer.from(this);
+            }
+            Container plain = unrun();
+            if (card <= ARRAY_MAX) {
+                return plain instanceof ArrayContainer ? plain : ArrayContainer.from(plain);
+            }
+            return plain instanceof BitmapContainer ? plain : BitmapContainer.from(plain);
+        }
+
+        static Container and(Container a, Container b) {
+            if (a instanceof RunContainer && b instanceof RunContainer) {
+                return ((RunContainer) a).and((RunContainer) b);
+            }
+            a = a.unrun();
+            b = b.unrun();
+            if (a instanceof ArrayContainer && b instanceof ArrayContainer && b.cardinality() < a.cardinality()) {
+                return ((ArrayContainer) b).filter(a, true);
+            }
+            if (a instanceof ArrayContainer) return ((ArrayContainer) a).filter(b, true);
+            if (b instanceof ArrayContainer) return ((ArrayContainer) b).filter(a, true);
+            return ((BitmapContainer) a).and((BitmapContainer) b);
+        }
+
+        static Container or(Container a, Container b) {
+            if (a instanceof RunContainer && b instanceof RunContainer) {
+                return ((RunContainer) a).or((RunContainer) b);
+            }
+            a = a.unrun();
+            b = b.unrun();
+            if (a instanceof ArrayContainer && b instanceof ArrayContainer) {
+                return ((ArrayContainer) a).or((ArrayContainer) b);
+            }
+            BitmapContainer out = a instanceof BitmapContainer
+                ? (BitmapContainer) a.copy() : (BitmapContainer) BitmapContainer.from(a);
+            for (CharIterator it = b.iterator(); it.hasNext(); ) out.set(it.next());
+            return out;
+        }
+
+        static Container andNot(Container a, Container b) {
+            a = a.unrun();
+            b = b.unrun();
+            if (a instanceof ArrayContainer) return ((ArrayContainer) a).filter(b, false);
+            BitmapContainer out = (BitmapContainer) a.copy();
+            if (b instanceof BitmapContainer) {
+                out.andNot((BitmapContainer) b);
+            } else {
+                for (CharIterator it = b.iterator(); it.hasNext(); ) out.clear(it.next());
+            }
+            return out.cardinality() <= ARRAY_MAX ? ArrayContainer.from(out) : out;
+        }
+    }
+
+    private static final class ArrayContainer extends Container {
+        private char[] content;
+        private int card;
+
+        ArrayContainer() {
+            content = new char[4];
+        }
+
+        ArrayContainer(char[] content, int card) {
+            this.content = content;
+            this.card = card;
+        }
+
+        static Container from(Container c) {
+            char[] out = new char[c.cardinality()];
+            int n = 0;
+            for (CharIterator it = c.iterator(); it.hasNext(); ) out[n++] = it.next();
+            return new ArrayContainer(out, n);
+        }
+
+        @Override
+        Container add(char x) {
+            int i = card > 0 && content[card - 1] < x ? -card - 1 : Arrays.binarySearch(content, 0, card, x);
+            if (i >= 0) return this;
+            if (card == ARRAY_MAX) {
+                BitmapContainer bm = (BitmapContainer) BitmapContainer.from(this);
+                bm.set(x);
+                return bm;
+            }
+            i = -i - 1;
+            if (card == content.length) {
+                content = Arrays.copyOf(content, Math.min(ARRAY_MAX, card * 2));
+            }
+            System.arraycopy(content, i, content, i + 1, card - i);
+            content[i] = x;
+            card++;
+            return this;
+        }
+
+        @Override
+        Container remove(char x) {
+            int i = Arrays.binarySearch(content, 0, card, x);
+            if (i >= 0) {
+                System.arraycopy(content, i + 1, content, i, card - i - 1);
+                card--;
+            }
+            return this;
+        }
+
+        @Override
+        boolean contains(char x) {
+            return Arrays.binarySearch(content, 0, card, x) >= 0;
+        }
+
+        @Override
+        int cardinality() {
+            return card;
+        }
+
+        @Override
+        CharIterator iterator() {
+            return new CharIterator() {
+                private int i;
+
+                @Override
+                public boolean hasNext() {
+                    return i < card;
+                }
+
+                @Override
+                public char next() {
+                    return content[i++];
+                }
+            };
+        }
+
+        @Override
+        Container copy() {
+            return new ArrayContainer(Arrays.copyOf(content, Math.max(1, card)), card);
+        }
+
+        @Override
+        long sizeInBytes() {
+            return 16 + content.length * 2L;
+        }
+
+        @Override
+        int numberOfRuns() {
+            int runs = 0;
+            for (int i = 0; i < card; i++) {
+                if (i == 0 || content[i] != content[i - 1] + 1) runs++;
+            }
+            return runs;
+        }
+
+        /**
+         * Keep the values that are (keep == true) or are not in the other container.
+         */
+        Container filter(Container other, boolean keep) {
+            char[] out = new char[card];
+            int n = 0;
+            for (int i = 0; i < card; i++) {
+                if (other.contains(content[i]) == keep) out[n++] = content[i];
+            }
+            return new ArrayContainer(out, n);
+        }
+
+        Container or(ArrayContainer o) {
+            char[] out = new char[card + o.card];
+            int i = 0, j = 0, n = 0;
+            while (i < card && j < o.card) {
+                char x = content[i], y = o.content[j];
+                if (x < y) {
+                    out[n++] = x;
+                    i++;
+                } else if (x > y) {
+                    out[n++] = y;
+                    j++;
+                } else {
+                    out[n++] = x;
+                    i++;
+                    j++;
+                }
+            }
+            while (i < card) out[n++] = content[i++];
+            while (j < o.card) out[n++] = o.content[j++];
+            ArrayContainer merged = new ArrayContainer(out, n);
+            return n > ARRAY_MAX ? BitmapContainer.from(merged) : merged;
+        }
+    }
+
+    private static final class BitmapContainer extends Container {
+        private final long[] words;
+        private int card;
+
+        BitmapContainer(long[] words, int card) {
+            this.words = words;
+            this.card = card;
+        }
+
+        static Container from(Container c) {
+            BitmapContainer bm = new BitmapContainer(new long[1024], 0);
+            for (CharIterator it = c.iterator(); it.hasNext(); ) bm.set(it.next());
+            return bm;
+        }
+
+        void set(char x) {
+            long before = words[x >>> 6];
+            long after = before | (1L << x);
+            words[x >>> 6] = after;
+            if (before != after) card++;
+        }
+
+        void clear(char x) {
+            long before = words[x >>> 6];
+            long after = before & ~(1L << x);
+            words[x >>> 6] = after;
+            if (before != after) card--;
+        }
+
+        @Override
+        Container add(char x) {
+            set(x);
+            return this;
+        }
+
+        @Override
+        Container remove(char x) {
+            clear(x);
+            return card <= ARRAY_MAX ? ArrayContainer.from(this) : this;
+        }
+
+        @Override
+        boolean contains(char x) {
+            return (words[x >>> 6] & (1L << x)) != 0;
+        }
+
+        @Override
+        int cardinality() {
+            return card;
+        }
+
+        @Override
+        CharIterator iterator() {
+            return new CharIterator() {
+                private int w;
+                private long word = words[0];
+
+                @Override
+                public boolean hasNext() {
+                    while (word == 0) {
+                        if (++w == words.length) return false;
+                        word = words[w];
+                    }
+                    return true;
+                }
+
+                @Override
+                public char next() {
+                    hasNext();
+                    char x = (char) ((w << 6) + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                    return x;
+                }
+            };
+        }
+
+        @Override
+        Container copy() {
+            return new BitmapContainer(words.clone(), card);
+        }
+
+        @Override
+        long sizeInBytes() {
+            return 16 + words.length * 8L;
+        }
+
+        @Override
+        int numberOfRuns() {
+            int runs = 0;
+            for (int i = 0; i < words.length; i++) {
+                long w = words[i];
+                long next = i + 1 < words.length ? words[i + 1] : 0;
+                // count 1 -> 0 transitions
+                runs += Long.bitCount(w & ~(w >>> 1 | next << 63));
+            }
+            return runs;
+        }
+
+        Container and(BitmapContainer o) {
+            long[] out = new long[1024];
+            int c = 0;
+            for (int i = 0; i < out.length; i++) {
+                out[i] = words[i] & o.words[i];
+                c += Long.bitCount(out[i]);
+            }
+            BitmapContainer bm = new BitmapContainer(out, c);
+            return c <= ARRAY_MAX ? ArrayContainer.from(bm) : bm;
+        }
+
+        void andNot(BitmapContainer o) {
+            int c = 0;
+            for (int i = 0; i < words.length; i++) {
+                words[i] &= ~o.words[i];
+                c += Long.bitCount(words[i]);
+            }
+            card = c;
+        }
+    }
+
+    private static final class RunContainer extends Container {
+        // pairs of (start, length - 1)
+        private char[] runs;
+        private int nRuns;
+
+        RunContainer(char[] runs, int nRuns) {
+            this.runs = runs;
+            this.nRuns = nRuns;
+        }
+
+        static Container from(Container c) {
+            char[] out = new char[2 * Math.max(1, c.numberOfRuns())];
+            int n = 0;
+            int start = -1, prev = -2;
+            for (CharIterator it = c.iterator(); it.hasNext(); ) {
+                int x = it.next();
+                if (x != prev + 1) {
+                    if (start >= 0) {
+                        out[2 * n] = (char) start;
+                        out[2 * n + 1] = (char) (prev - start);
+                        n++;
+                    }
+                    start = x;
+                }
+                prev = x;
+            }
+            if (start >= 0) {
+                out[2 * n] = (char) start;
+                out[2 * n + 1] = (char) (prev - start);
+                n++;
+            }
+            return new RunContainer(out, n);
+        }
+
+        private int start(int i) {
+            return runs[2 * i];
+        }
+
+        private int last(int i) {
+            return runs[2 * i] + runs[2 * i + 1];
+        }
+
+        @Override
+        Container add(char x) {
+            if (contains(x)) return this;
+            // extending the last run covers in-order inserts without expanding
+            if (nRuns > 0 && x == last(nRuns - 1) + 1) {
+                runs[2 * nRuns - 1]++;
+                return this;
+            }
+            return unrun().add(x);
+        }
+
+        @Override
+        Container remove(char x) {
+            if (!contains(x)) return this;
+            return unrun().remove(x);
+        }
+
+        @Override
+        boolean contains(char x) {
+            int lo = 0, hi = nRuns - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (start(mid) > x) hi = mid - 1;
+                else if (last(mid) < x) lo = mid + 1;
+                else return true;
+            }
+            return false;
+        }
+
+        @Override
+        int cardinality() {
+            int card = 0;
+            for (int i = 0; i < nRuns; i++) card += runs[2 * i + 1] + 1;
+            return card;
+        }
+
+        @Override
+        CharIterator iterator() {
+            return new CharIterator() {
+                private int run;
+                private int next = nRuns > 0 ? start(0) : 0;
+
+                @Override
+                public boolean hasNext() {
+                    return run < nRuns;
+                }
+
+                @Override
+                public char next() {
+                    char x = (char) next;
+                    if (next == last(run)) {
+                        if (++run < nRuns) next = start(run);
+                    } else {
+                        next++;
+                    }
+                    return x;
+                }
+            };
+        }
+
+        @Override
+        Container copy() {
+            return new RunContainer(Arrays.copyOf(runs, Math.max(2, 2 * nRuns)), nRuns);
+        }
+
+        @Override
+        long sizeInBytes() {
+            return 16 + runs.length * 2L;
+        }
+
+        @Override
+        int numberOfRuns() {
+            return nRuns;
+        }
+
+        @Override
+        Container unrun() {
+            return cardinality() <= ARRAY_MAX ? ArrayContainer.from(this) : BitmapContainer.from(this);
+        }
+
+        Container and(RunContainer o) {
+            char[] out = new char[2 * (nRuns + o.nRuns)];
+            int n = 0, i = 0, j = 0;
+            while (i < nRuns && j < o.nRuns) {
+                int s = Math.max(start(i), o.start(j));
+                int e = Math.min(last(i), o.last(j));
+                if (s <= e) {
+                    out[2 * n] = (char) s;
+                    out[2 * n + 1] = (char) (e - s);
+                    n++;
+                }
+                if (last(i) < o.last(j)) i++;
+                else j++;
+            }
+            return new RunContainer(out, n);
+        }
+
+        Container or(RunContainer o) {
+            char[] out = new char[2 * (nRuns + o.nRuns)];
+            int n = 0, i = 0, j = 0;
+            while (i < nRuns || j < o.nRuns) {
+                int s, e;
+                if (j == o.nRuns || (i < nRuns && start(i) <= o.start(j))) {
+                    s = start(i);
+                    e = last(i);
+                    i++;
+                } else {
+                    s = o.start(j);
+                    e = o.last(j);
+                    j++;
+                }
+                if (n > 0 && s <= out[2 * n - 2] + out[2 * n - 1] + 1) {
+                    int prevStart = out[2 * n - 2];
+                    int prevLast = prevStart + out[2 * n - 1];
+                    out[2 * n - 1] = (char) (Math.max(prevLast, e) - prevStart);
+                } else {
+                    out[2 * n] = (char) s;
+                    out[2 * n + 1] = (char) (e - s);
+                    n++;
+                }
+            }
+            return new RunContainer(out, n);
+        }
+    }
+}
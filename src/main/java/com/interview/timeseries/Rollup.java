@@ -0,0 +1,192 @@
+package com.interview.timeseries;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Count/sum/min/max of a series' points per fixed time bucket.
+ *
+ * Only buckets with points are stored, sorted by start time, so a sparse
+ * series costs little. Points are added as they arrive; late points update
+ * or insert their bucket. Bucket widths (MINUTE, HOUR) divide the 2h time
+ * block, so a bucket never spans blocks.
+ */
+final class Rollup {
+    static final long MINUTE = 60L * 1000;
+    static final long HOUR = 60L * MINUTE;
+    // coarsest first
+    static final long[] TIERS = {HOUR, MINUTE};
+
+    final long resolution;
+    private long[] starts;
+    private long[] counts;
+    private double[] sums;
+    private double[] mins;
+    private double[] maxs;
+    private int size;
+
+    Rollup(long resolution) {
+        this(resolution, 4);
+    }
+
+    private Rollup(long resolution, int capacity) {
+        this.resolution = resolution;
+        this.starts = new long[capacity];
+        this.counts = new long[capacity];
+        this.sums = new double[capacity];
+        this.mins = new double[capacity];
+        this.maxs = new double[capacity];
+    }
+
+    void add(long timestamp, double value) {
+        long start = Math.floorDiv(timestamp, resolution) * resolution;
+        int i = size;
+        if (size == 0 || starts[size - 1] < start) {
+            insert(i, start);
+        } else if (starts[size - 1] != start) {
+            i = Arrays.binarySearch(starts, 0, size, start);
+            if (i < 0) {
+                i = -i - 1;
+                insert(i, start);
+            }
+        } else {
+            i = size - 1;
+        }
+        counts[i]++;
+        sums[i] += value;
+        if (value < mins[i]) mins[i] = value;
+        if (value > maxs[i]) maxs[i] = value;
+    }
+
+    private void insert(int i, long start) {
+        if (size == starts.length) grow(size * 2);
+        System.arraycopy(starts, i, starts, i + 1, size - i);
+        System.arraycopy(counts, i, counts, i + 1, size - i);
+        System.arraycopy(sums, i, sums, i + 1, size - i);
+        System.arraycopy(mins, i, mins, i + 1, size - i);
+        System.arraycopy(maxs, i, maxs, i + 1, size - i);
+        starts[i] = start;
+        counts[i] = 0;
+        sums[i] = 0;
+        mins[i] = Double.POSITIVE_INFINITY;
+        maxs[i] = Double.NEGATIVE_INFINITY;
+        size++;
+    }
+
+    private void grow(int capacity) {
+        starts = Arrays.copyOf(starts, capacity);
+        counts = Arrays.copyOf(counts, capacity);
+        sums = Arrays.copyOf(sums, capacity);
+        mins = Arrays.copyOf(mins, capacity);
+        maxs = Arrays.copyOf(maxs, capacity);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Copy of the buckets starting in [timeStart, timeEnd).
+     */
+    Rollup slice(long timeStart, long timeEnd) {
+        int from = lowerBound(timeStart), to = lowerBound(timeEnd);
+        Rollup r = new Rollup(resolution, Math.max(to - from, 1));
+        System.arraycopy(starts, from, r.starts, 0, to - from);
+        System.arraycopy(counts, from, r.counts, 0, to - from);
+        System.arraycopy(sums, from, r.sums, 0, to - from);
+        System.arraycopy(mins, from, r.mins, 0, to - from);
+        System.arraycopy(maxs, from, r.maxs, 0, to - from);
+        r.size = to - from;
+        return r;
+    }
+
+    private int lowerBound(long time) {
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (starts[mid] < time) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Drop the buckets starting before the given time.
+     */
+    void dropBefore(long time) {
+        int n = lowerBound(time);
+        if (n == 0) return;
+        System.arraycopy(starts, n, starts, 0, size - n);
+        System.arraycopy(counts, n, counts, 0, size - n);
+        System.arraycopy(sums, n, sums, 0, size - n);
+        System.arraycopy(mins, n, mins, 0, size - n);
+        System.arraycopy(maxs, n, maxs, 0, size - n);
+        size -= n;
+    }
+
+    /**
+     * Merge every bucket into the output bucket holding its start, output
+     * bucket i covering [origin + i * step, origin + (i + 1) * step); a
+     * single output bucket takes everything.
+     */
+    void aggregate(long origin, long step, PartialAggregate[] buckets) {
+        for (int i = 0; i < size; i++) {
+            int b = buckets.length == 1 ? 0 : DownsampledSeries.bucket(starts[i], origin, step);
+            buckets[b].merge(counts[i], sums[i], mins[i], maxs[i]);
+        }
+    }
+
+    /**
+     * The tier serving the range without splitting its buckets, or 0 if
+     * none fits. With one output bucket (step Long.MAX_VALUE) any tier with
+     * a whole bucket inside the range does; otherwise the start and the
+     * step must be multiples of the tier's resolution.
+     */
+    static long tierFor(long timeStart, long timeEnd, long step) {
+        for (long r : TIERS) {
+            boolean aligned = step == Long.MAX_VALUE
+                || (step % r == 0 && Math.floorMod(timeStart, r) == 0);
+            if (aligned && alignDown(timeEnd, r) - alignUp(timeStart, r) >= r) return r;
+        }
+        return 0;
+    }
+
+    static long alignDown(long time, long resolution) {
+        return Math.floorDiv(time, resolution) * resolution;
+    }
+
+    static long alignUp(long time, long resolution) {
+        return -Math.floorDiv(-time, resolution) * resolution;
+    }
+
+    Rollup copy() {
+        return slice(Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    void writeTo(DataOutput out) throws IOException {
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            out.writeLong(starts[i]);
+            out.writeLong(counts[i]);
+            out.writeDouble(sums[i]);
+            out.writeDouble(mins[i]);
+            out.writeDouble(maxs[i]);
+        }
+    }
+
+    static Rollup readFrom(DataInput in, long resolution) throws IOException {
+        int n = in.readInt();
+        Rollup r = new Rollup(resolution, Math.max(n, 4));
+        for (int i = 0; i < n; i++) {
+            r.starts[i] = in.readLong();
+            r.counts[i] = in.readLong();
+            r.sums[i] = in.readDouble();
+            r.mins[i] = in.readDouble();
+            r.maxs[i] = in.readDouble();
+        }
+        r.size = n;
+        return r;
+    }
+}
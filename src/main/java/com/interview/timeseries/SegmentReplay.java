@@ -0,0 +1,229 @@
+package com.interview.timeseries;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Replays write-ahead log segments on a pool of threads.
+ *
+ * Segments are decoded concurrently, a window of them at a time, into runs
+ * of points per series sorted by timestamp. The window is then applied with
+ * one task per metric that visits the segments in log order, so a metric's
+ * blocks are only touched by one thread and every series receives its
+ * points in timestamp order; points late across segments still go through
+ * the out-of-order buffer.
+ */
+final class SegmentReplay {
+
+    /**
+     * Where replayed series and points go.
+     */
+    interface Target {
+        /**
+         * Resolve a series definition; called concurrently.
+         */
+        Series resolve(String metric, Map<String, String> tags);
+
+        /**
+         * Add a point; called concurrently, but by one thread per metric.
+         */
+        void append(Series series, long timestamp, double value);
+    }
+
+    private SegmentReplay() {
+    }
+
+    /**
+     * Replay the segments, in order, on the given number of threads.
+     * @param progress Told after each window, or null
+     * @return The number of points replayed
+     */
+    static long replay(List<Path> segments, int threads, Target target, RecoveryProgress progress)
+            throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "wal-recovery");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            long points = 0;
+            int window = threads * 2;
+            for (int from = 0; from < segments.size(); from += window) {
+                List<Path> batch = segments.subList(from, Math.min(segments.size(), from + window));
+                List<Future<Decoded>> decoding = new ArrayList<>(batch.size());
+                for (Path segment : batch) {
+                    decoding.add(pool.submit(() -> Decoded.of(segment, target)));
+                }
+                List<Decoded> decoded = new ArrayList<>(batch.size());
+                Set<String> metrics = new LinkedHashSet<>();
+                for (Future<Decoded> f : decoding) {
+                    Decoded d = await(f);
+                    decoded.add(d);
+                    metrics.addAll(d.runs.keySet());
+                    points += d.points;
+                }
+                List<Future<?>> applying = new ArrayList<>(metrics.size());
+                for (String metric : metrics) {
+                    applying.add(pool.submit(() -> {
+                        for (Decoded d : decoded) d.apply(metric, target);
+                    }));
+                }
+                for (Future<?> f : applying) await(f);
+                if (progress != null) progress.segmentsReplayed(from + batch.size(), segments.size(), points);
+            }
+            return points;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static <T> T await(Future<T> f) throws IOException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted during recovery", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Points of one segment, grouped by metric and series.
+     */
+    private static final class Decoded implements WalReader.Visitor {
+        private final Target target;
+        // series IDs are local to each segment
+        private Series[] byLogId = new Series[64];
+        private final Map<String, Map<Series, Run>> runs = new HashMap<>();
+        private long points;
+
+        private Decoded(Target target) {
+            this.target = target;
+        }
+
+        static Decoded of(Path segment, Target target) throws IOException {
+            Decoded d = new Decoded(target);
+            // a torn tail is ignored
+            WalReader.replay(segment, d);
+            return d;
+        }
+
+        @Override
+        public void onSeries(int id, String metric, Map<String, String> tags) {
+            if (id >= byLogId.length) byLogId = Arrays.copyOf(byLogId, Math.max(id + 1, byLogId.length * 2));
+            byLogId[id] = target.resolve(metric, tags);
+        }
+
+        @Override
+        public void onPoint(int id, long timestamp, double value) {
+            Series series = id < byLogId.length ? byLogId[id] : null;
+            if (series == null) return;
+            runs.computeIfAbsent(series.metric, k -> new HashMap<>())
+                .computeIfAbsent(series, k -> new Run())
+                .add(timestamp, value);
+            points++;
+        }
+
+        void apply(String metric, Target target) {
+            Map<Series, Run> bySeries = runs.get(metric);
+            if (bySeries == null) return;
+            for (Map.Entry<Series, Run> e : bySeries.entrySet()) {
+                Run run = e.getValue();
+                run.sort();
+                for (int i = 0; i < run.size; i++) {
+                    target.append(e.getKey(), run.ts[i], run.vals[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Points of one series in one segment, in log order until sorted.
+     */
+    private static final class Run {
+        long[] ts = new long[16];
+        double[] vals = new double[16];
+        int size;
+        private boolean sorted = true;
+
+        void add(long timestamp, double value) {
+            if (size == ts.length) {
+                ts = Arrays.copyOf(ts, size * 2);
+                vals = Arrays.copyOf(vals, size * 2);
+            }
+            if (size > 0 && timestamp < ts[size - 1]) sorted = false;
+            ts[size] = timestamp;
+            vals[size++] = value;
+        }
+
+        /**
+         * Stable sort by timestamp, so equal timestamps keep log order. A
+         * natural merge sort of the two columns: the ascending runs the log
+         * already holds are merged pairwise, so a mostly ordered run costs
+         * a few linear passes.
+         */
+        void sort() {
+            if (sorted) return;
+            // start of each ascending run
+            int[] starts = new int[16];
+            int runs = 0;
+            for (int i = 0; i < size; i++) {
+                if (i > 0 && ts[i] >= ts[i - 1]) continue;
+                if (runs == starts.length) starts = Arrays.copyOf(starts, runs * 2);
+                starts[runs++] = i;
+            }
+            long[] outTs = new long[size];
+            double[] outVals = new double[size];
+            while (runs > 1) {
+                int merged = 0;
+                for (int r = 0; r < runs; r += 2) {
+                    int mid = r + 1 < runs ? starts[r + 1] : size;
+                    int end = r + 2 < runs ? starts[r + 2] : size;
+                    merge(ts, vals, starts[r], mid, end, outTs, outVals);
+                    starts[merged++] = starts[r];
+                }
+                runs = merged;
+                long[] t = ts;
+                ts = outTs;
+                outTs = t;
+                double[] v = vals;
+                vals = outVals;
+                outVals = v;
+            }
+            sorted = true;
+        }
+
+        /**
+         * Merge the sorted ranges [lo, mid) and [mid, end) into the same
+         * positions of the output columns, the first range winning ties.
+         */
+        private static void merge(long[] ts, double[] vals, int lo, int mid, int end,
+                                  long[] outTs, double[] outVals) {
+            int a = lo, b = mid;
+            for (int k = lo; k < end; k++) {
+                if (b == end || (a < mid && ts[a] <= ts[b])) {
+                    outTs[k] = ts[a];
+                    outVals[k] = vals[a++];
+                } else {
+                    outTs[k] = ts[b];
+                    outVals[k] = vals[b++];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.interview.timeseries;
+
+/**
+ * A single series: one metric with one distinct tag set. Its points live in
+ * the SeriesColumns of each TimeBlock it has data in.
+ */
+final class Series {
+    // dense ID assigned by the SeriesRegistry
+    final int id;
+    final String metric;
+    final TagSet tags;
+
+    Series(int id, String metric, TagSet tags) {
+        this.id = id;
+        this.metric = metric;
+        this.tags = tags;
+    }
+
+    /**
+     * Materialize a point of this series as a DataPoint sharing the series' tags.
+     */
+    DataPoint toPoint(long timestamp, double value) {
+        return new DataPoint(timestamp, metric, value, tags);
+    }
+}
@@ -0,0 +1,697 @@
+package com.interview.timeseries;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Columnar storage for a single series (metric + tag set).
+ *
+ * Recent points live in an uncompressed head of parallel long[] / double[]
+ * columns so appends stay cheap. Once the head is full, or a new point falls
+ * outside the active write window, the head is sealed into an immutable
+ * Gorilla-compressed chunk. Sealed chunks are decoded while queries stream.
+ *
+ * Points older than the newest point are kept in a small sorted out-of-order
+ * buffer, which is merged into the head or the sealed chunks it belongs to
+ * in the background, or inline once it is full. Cursors merge both sources.
+ *
+ * Every point is also counted into the rollup tiers (see Rollup) as it
+ * arrives, so aggregates over whole tier buckets skip the raw points.
+ *
+ * The head arrays are append-only: slots below headSize are never written
+ * again, since sealing, eviction and merges move to fresh arrays. A
+ * Snapshot can therefore share them, recording only the current length.
+ */
+final class SeriesColumns {
+    static final int HEAD_CAPACITY = 1024;
+    static final long ACTIVE_WINDOW_MILLIS = 2L * 60 * 60 * 1000; // 2h
+    static final int OUT_OF_ORDER_CAPACITY = 256;
+    private static final int INITIAL_HEAD_CAPACITY = 8;
+    private static final long[] NO_TIMESTAMPS = new long[0];
+    private static final double[] NO_VALUES = new double[0];
+
+    private GorillaChunk[] sealed = new GorillaChunk[2];
+    private int sealedCount;
+    private long[] headTs = new long[INITIAL_HEAD_CAPACITY];
+    private double[] headVals = new double[INITIAL_HEAD_CAPACITY];
+    private int headSize;
+    // late points, sorted by timestamp
+    private long[] oooTs;
+    private double[] oooVals;
+    private int oooSize;
+    private int size;
+    // one per Rollup.TIERS entry
+    private Rollup[] rollups = newRollups();
+
+    private static Rollup[] newRollups() {
+        Rollup[] r = new Rollup[Rollup.TIERS.length];
+        for (int i = 0; i < r.length; i++) r[i] = new Rollup(Rollup.TIERS[i]);
+        return r;
+    }
+
+    /**
+     * Add a point to the series. Points older than the newest one go to the
+     * out-of-order buffer.
+     * @return true if the point was buffered and awaits mergeOutOfOrder()
+     */
+    boolean add(long timestamp, double value) {
+        for (Rollup r : rollups) r.add(timestamp, value);
+        if (timestamp < lastTimestamp()) {
+            bufferOutOfOrder(timestamp, value);
+            return true;
+        }
+        append(timestamp, value);
+        return false;
+    }
+
+    /**
+     * Timestamp of the newest in-order point; out-of-order points are older.
+     */
+    long lastTimestamp() {
+        if (headSize > 0) return headTs[headSize - 1];
+        return sealedCount > 0 ? sealed[sealedCount - 1].maxTs : Long.MIN_VALUE;
+    }
+
+    /**
+     * Append a point at the end of the series.
+     */
+    private void append(long timestamp, double value) {
+        if (headSize == HEAD_CAPACITY
+            || (headSize > 0 && timestamp - headTs[0] >= ACTIVE_WINDOW_MILLIS)) {
+            // the series is still written, start the next head at the same capacity
+            sealHead(headTs.length);
+        }
+        if (headSize == headTs.length) {
+            int cap = Math.min(HEAD_CAPACITY, Math.max(INITIAL_HEAD_CAPACITY, headTs.length * 2));
+            headTs = Arrays.copyOf(headTs, cap);
+            headVals = Arrays.copyOf(headVals, cap);
+        }
+        headTs[headSize] = timestamp;
+        headVals[headSize] = value;
+        headSize++;
+        size++;
+    }
+
+    private void bufferOutOfOrder(long timestamp, double value) {
+        if (oooTs == null) {
+            oooTs = new long[OUT_OF_ORDER_CAPACITY];
+            oooVals = new double[OUT_OF_ORDER_CAPACITY];
+        } else if (oooSize == OUT_OF_ORDER_CAPACITY) {
+            mergeOutOfOrder();
+        }
+        // insert after equal timestamps so arrival order is kept
+        int i = upperBound(oooTs, oooSize, timestamp);
+        System.arraycopy(oooTs, i, oooTs, i + 1, oooSize - i);
+        System.arraycopy(oooVals, i, oooVals, i + 1, oooSize - i);
+        oooTs[i] = timestamp;
+        oooVals[i] = value;
+        oooSize++;
+        size++;
+    }
+
+    /**
+     * Merge the out-of-order buffer into the head and the sealed chunks the
+     * late points belong to. Affected sealed chunks are decoded, merged and
+     * re-encoded; the head is merged into fresh arrays.
+     */
+    void mergeOutOfOrder() {
+        if (oooSize == 0) return;
+        int i = 0;
+        long headStart = headSize > 0 ? headTs[0] : Long.MAX_VALUE;
+        // late points before the head go into the sealed chunk covering them
+        while (i < oooSize && oooTs[i] < headStart && sealedCount > 0) {
+            int target = Math.max(0, lastChunkStartingAtOrBefore(oooTs[i]));
+            long limit = Math.min(target + 1 < sealedCount ? sealed[target + 1].minTs : Long.MAX_VALUE, headStart);
+            int j = i;
+            while (j < oooSize && oooTs[j] < limit) j++;
+            sealed[target] = mergeIntoChunk(sealed[target], i, j);
+            i = j;
+        }
+        if (i < oooSize) {
+            int n = headSize + oooSize - i;
+            long[] ts = new long[Math.max(n, INITIAL_HEAD_CAPACITY)];
+            double[] vals = new double[ts.length];
+            int h = 0, o = i, k = 0;
+            while (h < headSize || o < oooSize) {
+                if (o == oooSize || (h < headSize && headTs[h] <= oooTs[o])) {
+                    ts[k] = headTs[h];
+                    vals[k++] = headVals[h++];
+                } else {
+                    ts[k] = oooTs[o];
+                    vals[k++] = oooVals[o++];
+                }
+            }
+            headTs = ts;
+            headVals = vals;
+            headSize = n;
+            while (headSize > HEAD_CAPACITY) {
+                addSealed(GorillaChunk.encode(headTs, headVals, 0, HEAD_CAPACITY));
+                headSize -= HEAD_CAPACITY;
+                headTs = Arrays.copyOfRange(headTs, HEAD_CAPACITY, HEAD_CAPACITY + Math.max(headSize, INITIAL_HEAD_CAPACITY));
+                headVals = Arrays.copyOfRange(headVals, HEAD_CAPACITY, HEAD_CAPACITY + headTs.length);
+            }
+        }
+        oooSize = 0;
+    }
+
+    private GorillaChunk mergeIntoChunk(GorillaChunk chunk, int from, int to) {
+        int n = chunk.count + to - from;
+        long[] ts = new long[n];
+        double[] vals = new double[n];
+        GorillaChunk.Decoder dec = chunk.decoder();
+        boolean hasMain = dec.next();
+        int o = from, k = 0;
+        while (hasMain || o < to) {
+            if (o == to || (hasMain && dec.timestamp() <= oooTs[o])) {
+                ts[k] = dec.timestamp();
+                vals[k++] = dec.value();
+                hasMain = dec.next();
+            } else {
+                ts[k] = oooTs[o];
+                vals[k++] = oooVals[o++];
+            }
+        }
+        return GorillaChunk.encode(ts, vals, 0, n);
+    }
+
+    private int lastChunkStartingAtOrBefore(long time) {
+        int lo = 0, hi = sealedCount;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sealed[mid].minTs <= time) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo - 1;
+    }
+
+    private static int upperBound(long[] ts, int n, long time) {
+        int lo = 0, hi = n;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ts[mid] <= time) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    private static int lowerBound(long[] ts, int n, long time) {
+        return lowerBound(ts, 0, n, time);
+    }
+
+    private static int lowerBound(long[] ts, int from, int to, long time) {
+        int lo = from, hi = to;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ts[mid] < time) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    int outOfOrderSize() {
+        return oooSize;
+    }
+
+    /**
+     * Compress the current head into a sealed chunk. The block is out of the
+     * write window, so no head is kept until another point arrives.
+     */
+    void seal() {
+        sealHead(0);
+    }
+
+    private void sealHead(int nextCapacity) {
+        if (headSize == 0) return;
+        addSealed(GorillaChunk.encode(headTs, headVals, 0, headSize));
+        // snapshots may still read the old head
+        headTs = nextCapacity == 0 ? NO_TIMESTAMPS : new long[nextCapacity];
+        headVals = nextCapacity == 0 ? NO_VALUES : new double[nextCapacity];
+        headSize = 0;
+    }
+
+    private void addSealed(GorillaChunk chunk) {
+        if (sealedCount == sealed.length) {
+            sealed = Arrays.copyOf(sealed, sealedCount * 2);
+        }
+        sealed[sealedCount++] = chunk;
+    }
+
+    int size() {
+        return size;
+    }
+
+    long minTimestamp() {
+        long min = Long.MAX_VALUE;
+        if (sealedCount > 0) min = sealed[0].minTs;
+        else if (headSize > 0) min = headTs[0];
+        return oooSize > 0 ? Math.min(min, oooTs[0]) : min;
+    }
+
+    long maxTimestamp() {
+        long max = lastTimestamp();
+        return oooSize > 0 ? Math.max(max, oooTs[oooSize - 1]) : max;
+    }
+
+    /**
+     * Value of the last point at lastTimestamp(), decoding the last sealed
+     * chunk if the head is empty. Only for non-empty columns.
+     */
+    double lastValue() {
+        if (headSize > 0) return headVals[headSize - 1];
+        GorillaChunk.Decoder dec = sealed[sealedCount - 1].decoder();
+        double last = Double.NaN;
+        while (dec.next()) last = dec.value();
+        return last;
+    }
+
+    /**
+     * Copy of the current state. Sealed chunks are immutable and shared.
+     */
+    SeriesColumns copy() {
+        SeriesColumns c = new SeriesColumns();
+        c.sealed = Arrays.copyOf(sealed, Math.max(sealedCount, 2));
+        c.sealedCount = sealedCount;
+        c.headTs = Arrays.copyOf(headTs, Math.max(headSize, INITIAL_HEAD_CAPACITY));
+        c.headVals = Arrays.copyOf(headVals, c.headTs.length);
+        c.headSize = headSize;
+        if (oooSize > 0) {
+            c.oooTs = Arrays.copyOf(oooTs, OUT_OF_ORDER_CAPACITY);
+            c.oooVals = Arrays.copyOf(oooVals, OUT_OF_ORDER_CAPACITY);
+            c.oooSize = oooSize;
+        }
+        c.size = size;
+        c.rollups = new Rollup[rollups.length];
+        for (int i = 0; i < rollups.length; i++) c.rollups[i] = rollups[i].copy();
+        return c;
+    }
+
+    /**
+     * Copy of the buckets of the given tier starting in [timeStart, timeEnd).
+     */
+    Rollup rollupSlice(long resolution, long timeStart, long timeEnd) {
+        for (Rollup r : rollups) {
+            if (r.resolution == resolution) return r.slice(timeStart, timeEnd);
+        }
+        throw new IllegalArgumentException("no rollup tier of " + resolution + " ms");
+    }
+
+    private void rebuildRollups() {
+        rollups = newRollups();
+        Cursor cursor = cursor(Long.MIN_VALUE, Long.MAX_VALUE);
+        while (cursor.next()) {
+            for (Rollup r : rollups) r.add(cursor.timestamp(), cursor.value());
+        }
+    }
+
+    /**
+     * Write sealed chunks, head, out-of-order buffer and rollups as they are.
+     */
+    void writeTo(DataOutput out) throws IOException {
+        out.writeInt(sealedCount);
+        for (int i = 0; i < sealedCount; i++) sealed[i].writeTo(out);
+        writePoints(out, headTs, headVals, headSize);
+        writePoints(out, oooTs, oooVals, oooSize);
+        for (Rollup r : rollups) r.writeTo(out);
+    }
+
+    /**
+     * Read columns written by writeTo(); without stored rollups (older
+     * checkpoints) they are rebuilt from the points.
+     */
+    static SeriesColumns readFrom(DataInput in, boolean withRollups) throws IOException {
+        SeriesColumns c = new SeriesColumns();
+        int chunks = in.readInt();
+        for (int i = 0; i < chunks; i++) {
+            GorillaChunk chunk = GorillaChunk.readFrom(in);
+            c.addSealed(chunk);
+            c.size += chunk.count;
+        }
+        c.headSize = in.readInt();
+        c.headTs = new long[Math.max(c.headSize, INITIAL_HEAD_CAPACITY)];
+        c.headVals = new double[c.headTs.length];
+        readPoints(in, c.headTs, c.headVals, c.headSize);
+        int late = in.readInt();
+        if (late > 0) {
+            c.oooTs = new long[OUT_OF_ORDER_CAPACITY];
+            c.oooVals = new double[OUT_OF_ORDER_CAPACITY];
+            readPoints(in, c.oooTs, c.oooVals, late);
+            c.oooSize = late;
+        }
+        c.size += c.headSize + late;
+        if (withRollups) {
+            for (int i = 0; i < c.rollups.length; i++) c.rollups[i] = Rollup.readFrom(in, Rollup.TIERS[i]);
+        } else {
+            c.rebuildRollups();
+        }
+        return c;
+    }
+
+    private static void writePoints(DataOutput out, long[] ts, double[] vals, int n) throws IOException {
+        out.writeInt(n);
+        for (int i = 0; i < n; i++) {
+            out.writeLong(ts[i]);
+            out.writeDouble(vals[i]);
+        }
+    }
+
+    private static void readPoints(DataInput in, long[] ts, double[] vals, int n) throws IOException {
+        for (int i = 0; i < n; i++) {
+            ts[i] = in.readLong();
+            vals[i] = in.readDouble();
+        }
+    }
+
+    int sealedChunkCount() {
+        return sealedCount;
+    }
+
+    /**
+     * Find first sealed chunk whose newest point is >= time using binary search
+     */
+    private static int findFirstChunk(GorillaChunk[] sealed, int sealedCount, long time) {
+        int lo = 0, hi = sealedCount;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sealed[mid].maxTs < time) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Open a cursor over the points in [timeStart, timeEnd), in timestamp
+     * order. The cursor reads the live columns, so the caller keeps holding
+     * the lock while using it; see snapshot() otherwise.
+     */
+    Cursor cursor(long timeStart, long timeEnd) {
+        return new Cursor(sealed, sealedCount, headTs, headVals, headSize,
+            oooTs, oooVals, oooSize, timeStart, timeEnd);
+    }
+
+    /**
+     * Capture the current points for reading without the lock. Sealed chunks
+     * and the head are shared, only the chunk references and the small
+     * out-of-order buffer are copied.
+     */
+    Snapshot snapshot() {
+        return new Snapshot(Arrays.copyOf(sealed, sealedCount), headTs, headVals, headSize,
+            oooSize == 0 ? null : Arrays.copyOf(oooTs, oooSize),
+            oooSize == 0 ? null : Arrays.copyOf(oooVals, oooSize));
+    }
+
+    /**
+     * Drop every point with timestamp < cutoff. Whole sealed chunks are
+     * released, a chunk straddling the cutoff is re-encoded. Rollup buckets
+     * before the cutoff are dropped and the one straddling it is recounted
+     * from the remaining points.
+     */
+    void evictBefore(long cutoff) {
+        if (trimBefore(cutoff) == 0) return;
+        for (Rollup r : rollups) {
+            long straddling = Rollup.alignDown(cutoff, r.resolution);
+            if (straddling == cutoff) {
+                r.dropBefore(cutoff);
+                continue;
+            }
+            long next = straddling + r.resolution;
+            r.dropBefore(next);
+            Cursor cursor = cursor(cutoff, next);
+            while (cursor.next()) r.add(cursor.timestamp(), cursor.value());
+        }
+    }
+
+    /**
+     * @return The number of points dropped
+     */
+    private int trimBefore(long cutoff) {
+        int before = size;
+        int late = lowerBound(oooTs, oooSize, cutoff);
+        if (late > 0) {
+            System.arraycopy(oooTs, late, oooTs, 0, oooSize - late);
+            System.arraycopy(oooVals, late, oooVals, 0, oooSize - late);
+            oooSize -= late;
+            size -= late;
+        }
+        int drop = findFirstChunk(sealed, sealedCount, cutoff);
+        if (drop > 0) {
+            for (int i = 0; i < drop; i++) size -= sealed[i].count;
+            System.arraycopy(sealed, drop, sealed, 0, sealedCount - drop);
+            Arrays.fill(sealed, sealedCount - drop, sealedCount, null);
+            sealedCount -= drop;
+        }
+        if (sealedCount > 0) {
+            GorillaChunk first = sealed[0];
+            if (first.minTs < cutoff) {
+                long[] ts = new long[first.count];
+                double[] vals = new double[first.count];
+                int n = 0;
+                GorillaChunk.Decoder dec = first.decoder();
+                while (dec.next()) {
+                    if (dec.timestamp() < cutoff) continue;
+                    ts[n] = dec.timestamp();
+                    vals[n++] = dec.value();
+                }
+                sealed[0] = GorillaChunk.encode(ts, vals, 0, n);
+                size -= first.count - n;
+            }
+            return before - size;
+        }
+        int idx = lowerBound(headTs, headSize, cutoff);
+        if (idx > 0) {
+            headTs = Arrays.copyOfRange(headTs, idx, idx + Math.max(headSize - idx, INITIAL_HEAD_CAPACITY));
+            headVals = Arrays.copyOfRange(headVals, idx, idx + headTs.length);
+            headSize -= idx;
+            size -= idx;
+        }
+        return before - size;
+    }
+
+    /**
+     * Immutable view of a series' points at the time it was taken.
+     */
+    static final class Snapshot {
+        private final GorillaChunk[] sealed;
+        private final long[] headTs;
+        private final double[] headVals;
+        private final int headSize;
+        private final long[] oooTs;
+        private final double[] oooVals;
+
+        private Snapshot(GorillaChunk[] sealed, long[] headTs, double[] headVals, int headSize,
+                         long[] oooTs, double[] oooVals) {
+            this.sealed = sealed;
+            this.headTs = headTs;
+            this.headVals = headVals;
+            this.headSize = headSize;
+            this.oooTs = oooTs;
+            this.oooVals = oooVals;
+        }
+
+        Cursor cursor(long timeStart, long timeEnd) {
+            return new Cursor(sealed, sealed.length, headTs, headVals, headSize,
+                oooTs, oooVals, oooTs == null ? 0 : oooTs.length, timeStart, timeEnd);
+        }
+
+        /**
+         * The points in [timeStart, timeEnd) as a view of the head arrays,
+         * or null if some of them are in sealed chunks or out of order.
+         */
+        QueryResult headView(Series series, long timeStart, long timeEnd) {
+            if (sealed.length > 0 && sealed[sealed.length - 1].maxTs >= timeStart) return null;
+            if (oooTs != null && lowerBound(oooTs, oooTs.length, timeStart) < lowerBound(oooTs, oooTs.length, timeEnd)) {
+                return null;
+            }
+            int from = lowerBound(headTs, headSize, timeStart);
+            int to = lowerBound(headTs, headSize, timeEnd);
+            return QueryResult.view(series, headTs, headVals, from, to - from);
+        }
+
+        /**
+         * Fold the values in [timeStart, timeEnd) into per bucket aggregates,
+         * bucket i covering [origin + i * step, origin + (i + 1) * step).
+         * A single bucket covers the whole range whatever the step. Sealed
+         * chunks inside one bucket only contribute their point count if
+         * countOnly is set, without being decoded; other chunks are decoded
+         * into a per thread scratch run and folded like the head.
+         */
+        void aggregate(long timeStart, long timeEnd, long origin, long step, boolean countOnly,
+                       PartialAggregate[] buckets) {
+            for (int c = findFirstChunk(sealed, sealed.length, timeStart); c < sealed.length; c++) {
+                GorillaChunk chunk = sealed[c];
+                if (chunk.minTs >= timeEnd) break;
+                if (countOnly && chunk.minTs >= timeStart && chunk.maxTs < timeEnd) {
+                    int b = bucket(chunk.minTs, origin, step, buckets);
+                    if (b == bucket(chunk.maxTs, origin, step, buckets)) {
+                        buckets[b].count += chunk.count;
+                        continue;
+                    }
+                }
+                DecodeScratch scratch = DecodeScratch.forChunk(chunk);
+                chunk.decodeInto(scratch.timestamps, scratch.values);
+                foldRuns(scratch.timestamps, scratch.values, lowerBound(scratch.timestamps, chunk.count, timeStart),
+                    lowerBound(scratch.timestamps, chunk.count, timeEnd), origin, step, buckets);
+            }
+            foldRuns(headTs, headVals, lowerBound(headTs, headSize, timeStart), lowerBound(headTs, headSize, timeEnd),
+                origin, step, buckets);
+            if (oooTs != null) {
+                foldRuns(oooTs, oooVals, lowerBound(oooTs, oooTs.length, timeStart),
+                    lowerBound(oooTs, oooTs.length, timeEnd), origin, step, buckets);
+            }
+        }
+
+        /**
+         * Fold sorted points [from, to) bucket by bucket, each bucket's run
+         * of values in one ValueKernels call.
+         */
+        private static void foldRuns(long[] ts, double[] vals, int from, int to, long origin, long step,
+                                     PartialAggregate[] buckets) {
+            while (from < to) {
+                int b = bucket(ts[from], origin, step, buckets);
+                int end = buckets.length == 1 ? to : lowerBound(ts, from, to, DownsampledSeries.bucketEnd(origin, b, step));
+                ValueKernels.fold(vals, from, end, buckets[b]);
+                from = end;
+            }
+        }
+
+        private static int bucket(long t, long origin, long step, PartialAggregate[] buckets) {
+            return buckets.length == 1 ? 0 : DownsampledSeries.bucket(t, origin, step);
+        }
+    }
+
+    /**
+     * Reusable columns a sealed chunk is decoded into for aggregation, one
+     * per thread so parallel folds do not share them.
+     */
+    private static final class DecodeScratch {
+        private static final ThreadLocal<DecodeScratch> LOCAL =
+            ThreadLocal.withInitial(() -> new DecodeScratch(HEAD_CAPACITY));
+
+        long[] timestamps;
+        double[] values;
+
+        private DecodeScratch(int capacity) {
+            timestamps = new long[capacity];
+            values = new double[capacity];
+        }
+
+        static DecodeScratch forChunk(GorillaChunk chunk) {
+            DecodeScratch s = LOCAL.get();
+            if (s.timestamps.length < chunk.count) {
+                s.timestamps = new long[chunk.count];
+                s.values = new double[chunk.count];
+            }
+            return s;
+        }
+    }
+
+    /**
+     * Streams the points of a time range: sealed chunks are decoded lazily,
+     * then the head is read directly, merged with the out-of-order buffer.
+     */
+    static final class Cursor {
+        private final GorillaChunk[] sealed;
+        private final int sealedCount;
+        private final long[] headTs;
+        private final double[] headVals;
+        private final long[] oooTs;
+        private final double[] oooVals;
+        private final long timeStart;
+        private final long timeEnd;
+        private int chunk;
+        private GorillaChunk.Decoder decoder;
+        private int headPos;
+        private int headEnd;
+        private int oooPos;
+        private final int oooEnd;
+        // current point of the main (sealed + head) stream
+        private boolean mainReady;
+        private long mainTs;
+        private double mainVal;
+        private long timestamp;
+        private double value;
+
+        private Cursor(GorillaChunk[] sealed, int sealedCount, long[] headTs, double[] headVals, int headSize,
+                       long[] oooTs, double[] oooVals, int oooSize, long timeStart, long timeEnd) {
+            this.sealed = sealed;
+            this.sealedCount = sealedCount;
+            this.headTs = headTs;
+            this.headVals = headVals;
+            this.oooTs = oooTs;
+            this.oooVals = oooVals;
+            this.timeStart = timeStart;
+            this.timeEnd = timeEnd;
+            this.chunk = findFirstChunk(sealed, sealedCount, timeStart);
+            this.headPos = lowerBound(headTs, headSize, timeStart);
+            this.headEnd = lowerBound(headTs, headSize, timeEnd);
+            this.oooPos = lowerBound(oooTs, oooSize, timeStart);
+            this.oooEnd = lowerBound(oooTs, oooSize, timeEnd);
+            this.mainReady = nextMain();
+        }
+
+        /**
+         * Advance to the next point in range.
+         * @return false once the range is exhausted
+         */
+        boolean next() {
+            // on equal timestamps the main stream goes first, matching the merge order
+            if (mainReady && (oooPos == oooEnd || mainTs <= oooTs[oooPos])) {
+                timestamp = mainTs;
+                value = mainVal;
+                mainReady = nextMain();
+                return true;
+            }
+            if (oooPos < oooEnd) {
+                timestamp = oooTs[oooPos];
+                value = oooVals[oooPos];
+                oooPos++;
+                return true;
+            }
+            return false;
+        }
+
+        private boolean nextMain() {
+            while (decoder != null || chunk < sealedCount) {
+                if (decoder == null) {
+                    GorillaChunk c = sealed[chunk++];
+                    if (c.minTs >= timeEnd) {
+                        chunk = sealedCount;
+                        headPos = headEnd;
+                        return false;
+                    }
+                    decoder = c.decoder();
+                }
+                while (decoder.next()) {
+                    long t = decoder.timestamp();
+                    if (t < timeStart) continue;
+                    if (t >= timeEnd) {
+                        decoder = null;
+                        chunk = sealedCount;
+                        headPos = headEnd;
+                        return false;
+                    }
+                    mainTs = t;
+                    mainVal = decoder.value();
+                    return true;
+                }
+                decoder = null;
+            }
+            if (headPos < headEnd) {
+                mainTs = headTs[headPos];
+                mainVal = headVals[headPos];
+                headPos++;
+                return true;
+            }
+            return false;
+        }
+
+        long timestamp() {
+            return timestamp;
+        }
+
+        double value() {
+            return value;
+        }
+    }
+}
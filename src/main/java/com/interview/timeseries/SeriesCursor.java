@@ -0,0 +1,47 @@
+package com.interview.timeseries;
+
+import java.util.Map;
+
+/**
+ * Streams the points of a query one at a time through primitive
+ * accessors, in the order query() would return them, without creating a
+ * DataPoint or a result list.
+ *
+ * Typical use:
+ * <pre>
+ * SeriesCursor c = store.cursor("cpu.usage", start, end, null);
+ * while (c.next()) sum += c.value();
+ * </pre>
+ * Accessors describe the current point and are only valid after next()
+ * returned true. A cursor is not thread-safe.
+ */
+public interface SeriesCursor {
+
+    /**
+     * Moves to the next point.
+     *
+     * @return false once all points have been visited
+     */
+    boolean next();
+
+    /**
+     * @return The timestamp of the current point in milliseconds
+     */
+    long timestamp();
+
+    /**
+     * @return The value of the current point
+     */
+    double value();
+
+    /**
+     * @return An ID of the current point's series, equal for all points of
+     *         the same series within this cursor
+     */
+    int seriesId();
+
+    /**
+     * @return The (immutable) tags of the current point's series
+     */
+    Map<String, String> tags();
+}
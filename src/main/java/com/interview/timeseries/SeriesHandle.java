@@ -0,0 +1,46 @@
+package com.interview.timeseries;
+
+import java.util.Map;
+
+/**
+ * Identifies one series (metric + tag set) for columnar batch inserts.
+ *
+ * Obtain handles through TimeSeriesStore.seriesHandle(); a store resolves
+ * the series once when creating the handle, so batches written through it
+ * skip the tag set lookup.
+ */
+public final class SeriesHandle {
+    private final String metric;
+    private final Map<String, String> tags;
+    // store that resolved the series, and the series there
+    final Object owner;
+    final Series series;
+
+    SeriesHandle(String metric, Map<String, String> tags) {
+        this(metric, TagSet.of(tags), null, null);
+    }
+
+    SeriesHandle(Object owner, Series series) {
+        this(series.metric, series.tags, owner, series);
+    }
+
+    private SeriesHandle(String metric, Map<String, String> tags, Object owner, Series series) {
+        this.metric = metric;
+        this.tags = tags;
+        this.owner = owner;
+        this.series = series;
+    }
+
+    public String getMetric() {
+        return metric;
+    }
+
+    public Map<String, String> getTags() {
+        return tags;
+    }
+
+    @Override
+    public String toString() {
+        return "SeriesHandle{" + metric + tags + "}";
+    }
+}
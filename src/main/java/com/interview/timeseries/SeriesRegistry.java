@@ -0,0 +1,84 @@
+package com.interview.timeseries;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Series dictionary: maps (metric, sorted tag set) to a dense int series ID.
+ *
+ * Every series is registered once with one canonical metric string and one
+ * canonical TagSet, so points never carry their own copy of the tags.
+ * Lookups are thread-safe and allocation free on the hit path.
+ */
+final class SeriesRegistry {
+    // metric -> tag set -> series
+    private final ConcurrentMap<String, ConcurrentMap<Map<String, String>, Series>> byMetric =
+        new ConcurrentHashMap<>();
+    // metric -> series of that metric in registration order; copy-on-write so
+    // readers can iterate while register() appends
+    private final ConcurrentMap<String, List<Series>> seriesOfMetric = new ConcurrentHashMap<>();
+    // series ID -> series
+    private volatile Series[] byId = new Series[64];
+    private int nextId;
+
+    /**
+     * Look up an already registered series.
+     * @return The series, or null if (metric, tags) was never registered
+     */
+    Series lookup(String metric, Map<String, String> tags) {
+        ConcurrentMap<Map<String, String>, Series> byTags = byMetric.get(metric);
+        if (byTags == null) return null;
+        return byTags.get(tags == null ? TagSet.EMPTY : tags);
+    }
+
+    /**
+     * Register (metric, tags), or return the existing series.
+     */
+    synchronized Series register(String metric, Map<String, String> tags) {
+        Series existing = lookup(metric, tags);
+        if (existing != null) return existing;
+        List<Series> metricSeries = seriesOfMetric.computeIfAbsent(metric, k -> new CopyOnWriteArrayList<>());
+        String canonical = metricSeries.isEmpty() ? metric : metricSeries.get(0).metric;
+        Series series = new Series(nextId, canonical, TagSet.of(tags));
+        Series[] ids = byId;
+        if (nextId == ids.length) {
+            ids = Arrays.copyOf(ids, ids.length * 2);
+        }
+        ids[nextId++] = series;
+        byId = ids;
+        metricSeries.add(series);
+        byMetric.computeIfAbsent(canonical, k -> new ConcurrentHashMap<>()).put(series.tags, series);
+        return series;
+    }
+
+    /**
+     * Look up a series by its ID.
+     */
+    Series get(int id) {
+        Series[] ids = byId;
+        return id >= 0 && id < ids.length ? ids[id] : null;
+    }
+
+    /**
+     * Series of a metric in registration order, or an empty list. Safe to
+     * iterate while other threads register series.
+     */
+    List<Series> seriesOf(String metric) {
+        List<Series> list = seriesOfMetric.get(metric);
+        return list == null ? Collections.emptyList() : list;
+    }
+
+    Set<String> metrics() {
+        return Collections.unmodifiableSet(seriesOfMetric.keySet());
+    }
+
+    synchronized int size() {
+        return nextId;
+    }
+}
@@ -0,0 +1,382 @@
+package com.interview.timeseries;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * TimeSeriesStore partitioning series across independent shards.
+ *
+ * Each shard is a TimeSeriesStoreImpl with its own locks, indexes and
+ * write-ahead log in a subdirectory of the data directory. A series always
+ * goes to the shard picked by the hash of its metric and tag set, so
+ * inserts of different series spread over the shards. Queries fan out to
+ * the shards holding the metric on a ForkJoinPool and the per shard
+ * results, each sorted by timestamp, are merged.
+ */
+public class ShardedTimeSeriesStore implements TimeSeriesStore {
+    private final TimeSeriesStoreImpl[] shards;
+    private final ForkJoinPool pool;
+
+    public ShardedTimeSeriesStore(int shardCount) {
+        this(shardCount, new StoreOptions());
+    }
+
+    public ShardedTimeSeriesStore(int shardCount, StoreOptions options) {
+        this(shardCount, options, ForkJoinPool.commonPool());
+    }
+
+    public ShardedTimeSeriesStore(int shardCount, StoreOptions options, ForkJoinPool pool) {
+        if (shardCount <= 0) throw new IllegalArgumentException("shard count must be positive");
+        this.shards = new TimeSeriesStoreImpl[shardCount];
+        this.pool = pool;
+        int recoveryThreads = Math.max(1, options.getRecoveryThreads() / shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new TimeSeriesStoreImpl(options.copy()
+                .setDataDirectory(options.getDataDirectory().resolve("shard-" + i))
+                .setRecoveryThreads(recoveryThreads));
+        }
+    }
+
+    /**
+     * Shard of the series (metric, tags). Uses the Map hash contract, so any
+     * Map implementation of the same tags picks the same shard.
+     */
+    int shardOf(String metric, Map<String, String> tags) {
+        int h = metric.hashCode() * 31 + (tags == null ? 0 : tags.hashCode());
+        h ^= h >>> 16;
+        return Math.floorMod(h, shards.length);
+    }
+
+    @Override
+    public boolean initialize() {
+        // shards recover concurrently
+        List<ForkJoinTask<Boolean>> tasks = new ArrayList<>(shards.length);
+        for (TimeSeriesStoreImpl shard : shards) tasks.add(pool.submit(shard::initialize));
+        boolean ok = true;
+        for (ForkJoinTask<Boolean> t : tasks) ok &= t.join();
+        return ok;
+    }
+
+    @Override
+    public boolean insert(long timestamp, String metric, double value, Map<String, String> tags) {
+        return shards[shardOf(metric, tags)].insert(timestamp, metric, value, tags);
+    }
+
+    /**
+     * See TimeSeriesStoreImpl.insertAsync.
+     */
+    public CompletableFuture<Void> insertAsync(long timestamp, String metric, double value, Map<String, String> tags) {
+        return shards[shardOf(metric, tags)].insertAsync(timestamp, metric, value, tags);
+    }
+
+    /**
+     * Splits the batch by shard and inserts the parts on the calling thread,
+     * then waits once for all shards' logs. The shards' flushers commit
+     * concurrently, and no pool thread blocks on a log future, so queries
+     * on the pool are never starved by slow fsyncs.
+     */
+    @Override
+    public boolean insertBatch(List<DataPoint> points) {
+        List<List<DataPoint>> parts = new ArrayList<>(shards.length);
+        for (int i = 0; i < shards.length; i++) parts.add(new ArrayList<>());
+        for (DataPoint p : points) parts.get(shardOf(p.getMetric(), p.getTags())).add(p);
+        List<CompletableFuture<Void>> logged = new ArrayList<>(shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            if (!parts.get(i).isEmpty()) logged.add(shards[i].insertBatchAsync(parts.get(i)));
+        }
+        try {
+            CompletableFuture.allOf(logged.toArray(new CompletableFuture<?>[0])).join();
+            return true;
+        } catch (CompletionException e) {
+            e.getCause().printStackTrace();
+            return false;
+        }
+    }
+
+    @Override
+    public SeriesHandle seriesHandle(String metric, Map<String, String> tags) {
+        return shards[shardOf(metric, tags)].seriesHandle(metric, tags);
+    }
+
+    @Override
+    public boolean insertBatch(SeriesHandle series, long[] timestamps, double[] values) {
+        return shards[shardOf(series.getMetric(), series.getTags())].insertBatch(series, timestamps, values);
+    }
+
+    @Override
+    public List<DataPoint> query(String metric, long timeStart, long timeEnd, Map<String, String> filters) {
+        return query(metric, TagFilter.of(filters), timeStart, timeEnd);
+    }
+
+    @Override
+    public List<DataPoint> query(String metric, TagFilter filter, long timeStart, long timeEnd) {
+        List<TimeSeriesStoreImpl> relevant = new ArrayList<>(shards.length);
+        for (TimeSeriesStoreImpl shard : shards) {
+            if (shard.getMetrics().contains(metric)) relevant.add(shard);
+        }
+        if (relevant.isEmpty()) return Collections.emptyList();
+        if (relevant.size() == 1) return relevant.get(0).query(metric, filter, timeStart, timeEnd);
+        List<ForkJoinTask<List<DataPoint>>> tasks = new ArrayList<>(relevant.size());
+        for (TimeSeriesStoreImpl shard : relevant) {
+            tasks.add(pool.submit(() -> shard.query(metric, filter, timeStart, timeEnd)));
+        }
+        List<List<DataPoint>> parts = new ArrayList<>(tasks.size());
+        for (ForkJoinTask<List<DataPoint>> t : tasks) parts.add(t.join());
+        return mergeByTimestamp(parts);
+    }
+
+    @Override
+    public SeriesCursor cursor(String metric, long timeStart, long timeEnd, Map<String, String> filters) {
+        return cursor(metric, TagFilter.of(filters), timeStart, timeEnd);
+    }
+
+    /**
+     * Merges the shards' cursors by timestamp. A series ID is the shard's ID
+     * of the series times the shard count plus the shard index, so IDs stay
+     * distinct across shards.
+     */
+    @Override
+    public SeriesCursor cursor(String metric, TagFilter filter, long timeStart, long timeEnd) {
+        PriorityQueue<ShardCursor> heap = new PriorityQueue<>(shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            if (!shards[i].getMetrics().contains(metric)) continue;
+            ShardCursor c = new ShardCursor(i, shards[i].cursor(metric, filter, timeStart, timeEnd));
+            if (c.cursor.next()) heap.add(c);
+        }
+        return new SeriesCursor() {
+            private ShardCursor current;
+
+            @Override
+            public boolean next() {
+                if (current != null && current.cursor.next()) heap.add(current);
+                current = heap.poll();
+                return current != null;
+            }
+
+            @Override
+            public long timestamp() {
+                return current.cursor.timestamp();
+            }
+
+            @Override
+            public double value() {
+                return current.cursor.value();
+            }
+
+            @Override
+            public int seriesId() {
+                return current.cursor.seriesId() * shards.length + current.shard;
+            }
+
+            @Override
+            public Map<String, String> tags() {
+                return current.cursor.tags();
+            }
+        };
+    }
+
+    /**
+     * Each series lives in one shard, so the shards' latest points are concatenated.
+     */
+    @Override
+    public List<DataPoint> latest(String metric, Map<String, String> filters) {
+        List<DataPoint> result = new ArrayList<>();
+        for (TimeSeriesStoreImpl shard : shards) result.addAll(shard.latest(metric, filters));
+        return Collections.unmodifiableList(result);
+    }
+
+    @Override
+    public double aggregate(String metric, long timeStart, long timeEnd, Map<String, String> filters,
+                            Aggregation aggregation) {
+        return aggregate(metric, TagFilter.of(filters), timeStart, timeEnd, aggregation);
+    }
+
+    /**
+     * Merges the partial aggregates of the shards, computed concurrently.
+     */
+    @Override
+    public double aggregate(String metric, TagFilter filter, long timeStart, long timeEnd, Aggregation aggregation) {
+        List<ForkJoinTask<PartialAggregate>> tasks = new ArrayList<>(shards.length);
+        for (TimeSeriesStoreImpl shard : shards) {
+            if (!shard.getMetrics().contains(metric)) continue;
+            tasks.add(pool.submit(() -> shard.aggregatePartial(metric, timeStart, timeEnd, filter, aggregation)));
+        }
+        PartialAggregate total = new PartialAggregate();
+        for (ForkJoinTask<PartialAggregate> t : tasks) total.merge(t.join());
+        return total.result(aggregation);
+    }
+
+    @Override
+    public DownsampledSeries downsample(String metric, long timeStart, long timeEnd, Map<String, String> filters,
+                                        long step, Aggregation aggregation) {
+        return downsample(metric, TagFilter.of(filters), timeStart, timeEnd, step, aggregation);
+    }
+
+    /**
+     * Merges the shards' per bucket partial aggregates, computed concurrently.
+     */
+    @Override
+    public DownsampledSeries downsample(String metric, TagFilter filter, long timeStart, long timeEnd,
+                                        long step, Aggregation aggregation) {
+        List<ForkJoinTask<PartialAggregate[]>> tasks = new ArrayList<>(shards.length);
+        for (TimeSeriesStoreImpl shard : shards) {
+            if (!shard.getMetrics().contains(metric)) continue;
+            tasks.add(pool.submit(() -> shard.downsamplePartial(metric, timeStart, timeEnd, filter, step, aggregation)));
+        }
+        PartialAggregate[] total = DownsampledSeries.buckets(timeStart, timeEnd, step);
+        for (ForkJoinTask<PartialAggregate[]> t : tasks) {
+            PartialAggregate[] part = t.join();
+            for (int i = 0; i < total.length; i++) total[i].merge(part[i]);
+        }
+        return DownsampledSeries.of(timeStart, step, aggregation, total);
+    }
+
+    @Override
+    public Map<String, Double> aggregateBy(String metric, long timeStart, long timeEnd, Map<String, String> filters,
+                                           String groupBy, Aggregation aggregation) {
+        return aggregateBy(metric, TagFilter.of(filters), timeStart, timeEnd, groupBy, aggregation);
+    }
+
+    @Override
+    public Map<String, Double> aggregateBy(String metric, TagFilter filter, long timeStart, long timeEnd,
+                                           String groupBy, Aggregation aggregation) {
+        Map<String, Double> result = new TreeMap<>();
+        groupPartials(metric, timeStart, timeEnd, filter, groupBy, Long.MAX_VALUE, aggregation)
+            .forEach((group, buckets) -> result.put(group, buckets[0].result(aggregation)));
+        return result;
+    }
+
+    @Override
+    public Map<String, DownsampledSeries> downsampleBy(String metric, long timeStart, long timeEnd,
+                                                       Map<String, String> filters, String groupBy,
+                                                       long step, Aggregation aggregation) {
+        return downsampleBy(metric, TagFilter.of(filters), timeStart, timeEnd, groupBy, step, aggregation);
+    }
+
+    @Override
+    public Map<String, DownsampledSeries> downsampleBy(String metric, TagFilter filter, long timeStart, long timeEnd,
+                                                       String groupBy, long step, Aggregation aggregation) {
+        Map<String, DownsampledSeries> result = new TreeMap<>();
+        groupPartials(metric, timeStart, timeEnd, filter, groupBy, step, aggregation)
+            .forEach((group, buckets) -> result.put(group, DownsampledSeries.of(timeStart, step, aggregation, buckets)));
+        return result;
+    }
+
+    /**
+     * Merges the shards' per group partials, computed concurrently. A group
+     * can span shards, since series are spread by their whole tag set.
+     */
+    private Map<String, PartialAggregate[]> groupPartials(String metric, long timeStart, long timeEnd,
+                                                          TagFilter filter, String groupBy,
+                                                          long step, Aggregation aggregation) {
+        List<ForkJoinTask<Map<String, PartialAggregate[]>>> tasks = new ArrayList<>(shards.length);
+        for (TimeSeriesStoreImpl shard : shards) {
+            if (!shard.getMetrics().contains(metric)) continue;
+            tasks.add(pool.submit(() ->
+                shard.groupPartials(metric, timeStart, timeEnd, filter, groupBy, step, aggregation)));
+        }
+        Map<String, PartialAggregate[]> total = new TreeMap<>();
+        for (ForkJoinTask<Map<String, PartialAggregate[]>> t : tasks) {
+            t.join().forEach((group, part) -> total.merge(group, part, (a, b) -> {
+                for (int i = 0; i < a.length; i++) a[i].merge(b[i]);
+                return a;
+            }));
+        }
+        return total;
+    }
+
+    /**
+     * K-way merge of lists sorted by timestamp; equal timestamps keep shard order.
+     * @return An immutable list
+     */
+    static List<DataPoint> mergeByTimestamp(List<List<DataPoint>> parts) {
+        int total = 0;
+        PriorityQueue<Head> heap = new PriorityQueue<>(parts.size());
+        for (int p = 0; p < parts.size(); p++) {
+            List<DataPoint> part = parts.get(p);
+            total += part.size();
+            if (!part.isEmpty()) heap.add(new Head(p, part));
+        }
+        List<DataPoint> result = new ArrayList<>(total);
+        while (!heap.isEmpty()) {
+            Head top = heap.poll();
+            result.add(top.current);
+            if (top.advance()) heap.add(top);
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * One shard's cursor in the merge, ordered by its current point.
+     */
+    private static final class ShardCursor implements Comparable<ShardCursor> {
+        final int shard;
+        final SeriesCursor cursor;
+
+        ShardCursor(int shard, SeriesCursor cursor) {
+            this.shard = shard;
+            this.cursor = cursor;
+        }
+
+        @Override
+        public int compareTo(ShardCursor o) {
+            int c = Long.compare(cursor.timestamp(), o.cursor.timestamp());
+            return c != 0 ? c : Integer.compare(shard, o.shard);
+        }
+    }
+
+    /**
+     * Current point of one shard's result in the merge.
+     */
+    private static final class Head implements Comparable<Head> {
+        final int shard;
+        final List<DataPoint> points;
+        int pos;
+        DataPoint current;
+
+        Head(int shard, List<DataPoint> points) {
+            this.shard = shard;
+            this.points = points;
+            this.current = points.get(0);
+        }
+
+        boolean advance() {
+            if (++pos == points.size()) return false;
+            current = points.get(pos);
+            return true;
+        }
+
+        @Override
+        public int compareTo(Head o) {
+            int c = Long.compare(current.getTimestamp(), o.current.getTimestamp());
+            return c != 0 ? c : Integer.compare(shard, o.shard);
+        }
+    }
+
+    @Override
+    public boolean shutdown() {
+        boolean ok = true;
+        for (TimeSeriesStoreImpl shard : shards) ok &= shard.shutdown();
+        return ok;
+    }
+
+    /**
+     * Get the names of all metrics held in any shard.
+     * @return The set of metric names
+     */
+    public Set<String> getMetrics() {
+        Set<String> metrics = new HashSet<>();
+        for (TimeSeriesStoreImpl shard : shards) metrics.addAll(shard.getMetrics());
+        return metrics;
+    }
+}
@@ -0,0 +1,154 @@
+package com.interview.timeseries;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Tuning options for TimeSeriesStoreImpl. Setters return this for chaining.
+ */
+public class StoreOptions {
+    private Durability durability = Durability.OS_BUFFERED;
+    private long syncIntervalMillis = 100;
+    private Path dataDirectory = Paths.get("data_store");
+    private long segmentSizeBytes = 64L * 1024 * 1024;
+    private int checkpointSegments = 4;
+    private int recoveryThreads = Runtime.getRuntime().availableProcessors();
+    private RecoveryProgress recoveryProgress;
+    private long queryCacheCapacity = 0;
+    private long parallelQueryThreshold = 1L << 20;
+
+    /**
+     * Independent copy of these options.
+     */
+    public StoreOptions copy() {
+        StoreOptions c = new StoreOptions();
+        c.durability = durability;
+        c.syncIntervalMillis = syncIntervalMillis;
+        c.dataDirectory = dataDirectory;
+        c.segmentSizeBytes = segmentSizeBytes;
+        c.checkpointSegments = checkpointSegments;
+        c.recoveryThreads = recoveryThreads;
+        c.recoveryProgress = recoveryProgress;
+        c.queryCacheCapacity = queryCacheCapacity;
+        c.parallelQueryThreshold = parallelQueryThreshold;
+        return c;
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    /**
+     * Choose when inserts are acknowledged, see Durability.
+     */
+    public StoreOptions setDurability(Durability durability) {
+        this.durability = durability;
+        return this;
+    }
+
+    public long getSyncIntervalMillis() {
+        return syncIntervalMillis;
+    }
+
+    /**
+     * Interval between fsyncs for Durability.SYNC_INTERVAL.
+     */
+    public StoreOptions setSyncIntervalMillis(long syncIntervalMillis) {
+        if (syncIntervalMillis <= 0) throw new IllegalArgumentException("sync interval must be positive");
+        this.syncIntervalMillis = syncIntervalMillis;
+        return this;
+    }
+
+    public Path getDataDirectory() {
+        return dataDirectory;
+    }
+
+    /**
+     * Directory holding the log segments and checkpoints.
+     */
+    public StoreOptions setDataDirectory(Path dataDirectory) {
+        this.dataDirectory = dataDirectory;
+        return this;
+    }
+
+    public long getSegmentSizeBytes() {
+        return segmentSizeBytes;
+    }
+
+    /**
+     * Size at which the write-ahead log moves on to a new segment file.
+     */
+    public StoreOptions setSegmentSizeBytes(long segmentSizeBytes) {
+        if (segmentSizeBytes <= 0) throw new IllegalArgumentException("segment size must be positive");
+        this.segmentSizeBytes = segmentSizeBytes;
+        return this;
+    }
+
+    public int getCheckpointSegments() {
+        return checkpointSegments;
+    }
+
+    /**
+     * Write a checkpoint once this many segments were started since the last one.
+     */
+    public StoreOptions setCheckpointSegments(int checkpointSegments) {
+        if (checkpointSegments <= 0) throw new IllegalArgumentException("checkpoint segments must be positive");
+        this.checkpointSegments = checkpointSegments;
+        return this;
+    }
+
+    public int getRecoveryThreads() {
+        return recoveryThreads;
+    }
+
+    /**
+     * Threads decoding and applying log segments at startup; 1 replays sequentially.
+     */
+    public StoreOptions setRecoveryThreads(int recoveryThreads) {
+        if (recoveryThreads <= 0) throw new IllegalArgumentException("recovery threads must be positive");
+        this.recoveryThreads = recoveryThreads;
+        return this;
+    }
+
+    public RecoveryProgress getRecoveryProgress() {
+        return recoveryProgress;
+    }
+
+    /**
+     * Listener for log replay progress at startup; null (the default) reports nothing.
+     */
+    public StoreOptions setRecoveryProgress(RecoveryProgress recoveryProgress) {
+        this.recoveryProgress = recoveryProgress;
+        return this;
+    }
+
+    public long getQueryCacheCapacity() {
+        return queryCacheCapacity;
+    }
+
+    /**
+     * Budget of the query result cache, in points of cached query results
+     * plus buckets of cached downsampled ones; 0 (the default) disables it.
+     */
+    public StoreOptions setQueryCacheCapacity(long queryCacheCapacity) {
+        if (queryCacheCapacity < 0) throw new IllegalArgumentException("query cache capacity must not be negative");
+        this.queryCacheCapacity = queryCacheCapacity;
+        return this;
+    }
+
+    public long getParallelQueryThreshold() {
+        return parallelQueryThreshold;
+    }
+
+    /**
+     * Points a query must capture to be merged or aggregated on the common
+     * fork/join pool instead of the calling thread; Long.MAX_VALUE never does.
+     */
+    public StoreOptions setParallelQueryThreshold(long parallelQueryThreshold) {
+        if (parallelQueryThreshold <= 0) {
+            throw new IllegalArgumentException("parallel query threshold must be positive");
+        }
+        this.parallelQueryThreshold = parallelQueryThreshold;
+        return this;
+    }
+}
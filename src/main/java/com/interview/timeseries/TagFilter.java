@@ -0,0 +1,557 @@
+package com.interview.timeseries;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.PrimitiveIterator;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/**
+ * Immutable tag filter expression selecting the series a query reads.
+ *
+ * Leaf filters test the value of one tag key (equals, IN set, prefix,
+ * regex) and combine with and/or/not. A series without the key matches no
+ * leaf, so neq("dc", "eu") also selects series without a dc tag.
+ *
+ * Filters are evaluated per time block against its postings: every leaf
+ * is resolved through the block's sorted dictionary of the key's values
+ * (prefix and regex only visit the matching range of it, not the points),
+ * and the per value bitmaps are combined with OR, AND and ANDNOT.
+ *
+ * AND is planned by selectivity: its terms are estimated from posting
+ * cardinalities and intersected smallest first. Once the candidates are far
+ * fewer than the next term's postings, the remaining terms are checked
+ * against each candidate's tags instead of materializing their bitmaps.
+ *
+ * Filters compare structurally: expressions built the same way from equal
+ * keys and values are equal, so they can key cached query results.
+ */
+public abstract class TagFilter {
+    /** Matches every series. */
+    public static final TagFilter ALL = new All();
+    // candidates are checked one by one when this many times fewer than the next term's estimate
+    private static final int CHECK_RATIO = 16;
+
+    private TagFilter() {
+    }
+
+    /**
+     * Series whose tag key has exactly the value.
+     */
+    public static TagFilter eq(String key, String value) {
+        return new In(key, new TreeSet<>(List.of(value)));
+    }
+
+    /**
+     * Series without the tag key or with a different value.
+     */
+    public static TagFilter neq(String key, String value) {
+        return not(eq(key, value));
+    }
+
+    /**
+     * Series whose tag key has one of the values.
+     */
+    public static TagFilter in(String key, Collection<String> values) {
+        return new In(key, new TreeSet<>(values));
+    }
+
+    public static TagFilter in(String key, String... values) {
+        return in(key, Arrays.asList(values));
+    }
+
+    /**
+     * Series whose tag key has a value starting with the prefix.
+     */
+    public static TagFilter prefix(String key, String prefix) {
+        return new Prefix(key, prefix);
+    }
+
+    /**
+     * Series whose tag key has a value fully matching the regular expression.
+     */
+    public static TagFilter regex(String key, String regex) {
+        return new Regex(key, Pattern.compile(regex));
+    }
+
+    public static TagFilter and(TagFilter... filters) {
+        return new And(Arrays.asList(filters.clone()));
+    }
+
+    public static TagFilter or(TagFilter... filters) {
+        return new Or(Arrays.asList(filters.clone()));
+    }
+
+    public static TagFilter not(TagFilter filter) {
+        return new Not(Objects.requireNonNull(filter));
+    }
+
+    /**
+     * The exact-match AND of the given key-value pairs, as taken by the
+     * Map based query methods. Terms are ordered by key, so equal maps give
+     * equal expressions.
+     * @param filters Tag filters (can be null or empty for all series)
+     */
+    public static TagFilter of(Map<String, String> filters) {
+        if (filters == null || filters.isEmpty()) return ALL;
+        List<TagFilter> leaves = new ArrayList<>(filters.size());
+        for (Map.Entry<String, String> f : new TreeMap<>(filters).entrySet()) {
+            leaves.add(eq(f.getKey(), f.getValue()));
+        }
+        return leaves.size() == 1 ? leaves.get(0) : new And(leaves);
+    }
+
+    /**
+     * Whether a series with these tags is selected.
+     */
+    public abstract boolean matches(Map<String, String> tags);
+
+    /**
+     * IDs of the block's series selected by this filter.
+     * @param registry Resolves IDs to series whose tags are checked directly
+     * @return The IDs, possibly shared with the block's index and not to be modified
+     */
+    abstract RoaringBitmap select(TimeBlock block, SeriesRegistry registry);
+
+    /**
+     * Upper bound of the number of the block's series selected, from posting
+     * cardinalities without combining bitmaps.
+     */
+    abstract int estimate(TimeBlock block);
+
+    private static final class All extends TagFilter {
+        @Override
+        public boolean matches(Map<String, String> tags) {
+            return true;
+        }
+
+        @Override
+        RoaringBitmap select(TimeBlock block, SeriesRegistry registry) {
+            return block.allSeries();
+        }
+
+        @Override
+        int estimate(TimeBlock block) {
+            return block.allSeries().cardinality();
+        }
+
+        @Override
+        public String toString() {
+            return "*";
+        }
+    }
+
+    /**
+     * Test of one tag key's value, resolved through the block's value dictionary.
+     */
+    private abstract static class Leaf extends TagFilter {
+        final String key;
+
+        Leaf(String key) {
+            this.key = Objects.requireNonNull(key);
+        }
+
+        abstract boolean accepts(String value);
+
+        /**
+         * The dictionary entries that can match, a sub-range of it where possible.
+         */
+        NavigableMap<String, RoaringBitmap> candidates(NavigableMap<String, RoaringBitmap> values) {
+            return values;
+        }
+
+        @Override
+        public boolean matches(Map<String, String> tags) {
+            String value = tags.get(key);
+            return value != null && accepts(value);
+        }
+
+        @Override
+        RoaringBitmap select(TimeBlock block, SeriesRegistry registry) {
+            RoaringBitmap result = null;
+            for (Map.Entry<String, RoaringBitmap> e : candidates(block.postings(key)).entrySet()) {
+                if (!accepts(e.getKey())) continue;
+                result = result == null ? e.getValue() : RoaringBitmap.or(result, e.getValue());
+            }
+            return result == null ? new RoaringBitmap() : result;
+        }
+
+        /**
+         * Series of the candidate dictionary values; regex values are not tested.
+         */
+        @Override
+        int estimate(TimeBlock block) {
+            long n = 0;
+            for (RoaringBitmap bm : candidates(block.postings(key)).values()) n += bm.cardinality();
+            return (int) Math.min(n, block.allSeries().cardinality());
+        }
+    }
+
+    private static final class In extends Leaf {
+        private final TreeSet<String> values;
+
+        In(String key, TreeSet<String> values) {
+            super(key);
+            this.values = values;
+        }
+
+        @Override
+        boolean accepts(String value) {
+            return values.contains(value);
+        }
+
+        @Override
+        int estimate(TimeBlock block) {
+            NavigableMap<String, RoaringBitmap> dictionary = block.postings(key);
+            int n = 0;
+            for (String v : values) {
+                RoaringBitmap bm = dictionary.get(v);
+                if (bm != null) n += bm.cardinality();
+            }
+            return n;
+        }
+
+        @Override
+        RoaringBitmap select(TimeBlock block, SeriesRegistry registry) {
+            NavigableMap<String, RoaringBitmap> dictionary = block.postings(key);
+            RoaringBitmap result = null;
+            for (String v : values) {
+                RoaringBitmap bm = dictionary.get(v);
+                if (bm == null) continue;
+                result = result == null ? bm : RoaringBitmap.or(result, bm);
+            }
+            return result == null ? new RoaringBitmap() : result;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof In && key.equals(((In) o).key) && values.equals(((In) o).values);
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode() * 31 + values.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            if (values.size() == 1) return key + "=" + quote(values.first());
+            StringBuilder sb = new StringBuilder(key).append(" in [");
+            for (String v : values) {
+                if (!v.equals(values.first())) sb.append(", ");
+                sb.append(quote(v));
+            }
+            return sb.append(']').toString();
+        }
+    }
+
+    private static final class Prefix extends Leaf {
+        private final String prefix;
+
+        Prefix(String key, String prefix) {
+            super(key);
+            this.prefix = prefix;
+        }
+
+        @Override
+        boolean accepts(String value) {
+            return value.startsWith(prefix);
+        }
+
+        @Override
+        NavigableMap<String, RoaringBitmap> candidates(NavigableMap<String, RoaringBitmap> values) {
+            return rangeOf(values, prefix);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Prefix && key.equals(((Prefix) o).key) && prefix.equals(((Prefix) o).prefix);
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode() * 31 + prefix.hashCode() + 1;
+        }
+
+        @Override
+        public String toString() {
+            return key + "=~" + quote(Pattern.quote(prefix) + ".*");
+        }
+    }
+
+    private static final class Regex extends Leaf {
+        private final Pattern pattern;
+        // literal start every match has, narrowing the dictionary range
+        private final String literalPrefix;
+
+        Regex(String key, Pattern pattern) {
+            super(key);
+            this.pattern = pattern;
+            this.literalPrefix = literalPrefix(pattern.pattern());
+        }
+
+        @Override
+        boolean accepts(String value) {
+            return pattern.matcher(value).matches();
+        }
+
+        @Override
+        NavigableMap<String, RoaringBitmap> candidates(NavigableMap<String, RoaringBitmap> values) {
+            return literalPrefix.isEmpty() ? values : rangeOf(values, literalPrefix);
+        }
+
+        /**
+         * Leading characters of the pattern that are plain literals, minus the
+         * last one if a quantifier or alternation follows.
+         */
+        static String literalPrefix(String regex) {
+            int n = 0;
+            while (n < regex.length() && "\\[](){}.*+?^$|".indexOf(regex.charAt(n)) < 0) n++;
+            if (n < regex.length() && "?*{|".indexOf(regex.charAt(n)) >= 0) n = Math.max(0, n - 1);
+            if (regex.indexOf('|') >= 0) return "";
+            return regex.substring(0, n);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Regex)) return false;
+            Regex other = (Regex) o;
+            return key.equals(other.key) && pattern.pattern().equals(other.pattern.pattern())
+                && pattern.flags() == other.pattern.flags();
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode() * 31 + pattern.pattern().hashCode() + 2;
+        }
+
+        @Override
+        public String toString() {
+            return key + "=~" + quote(pattern.pattern());
+        }
+    }
+
+    /**
+     * Dictionary entries starting with the prefix.
+     */
+    private static NavigableMap<String, RoaringBitmap> rangeOf(NavigableMap<String, RoaringBitmap> values,
+                                                             String prefix) {
+        if (prefix.isEmpty()) return values;
+        String next = prefix.substring(0, prefix.length() - 1) + (char) (prefix.charAt(prefix.length() - 1) + 1);
+        return prefix.charAt(prefix.length() - 1) == Character.MAX_VALUE
+            ? values.tailMap(prefix, true) : values.subMap(prefix, true, next, false);
+    }
+
+    private static final class And extends TagFilter {
+        private final List<TagFilter> filters;
+
+        And(List<TagFilter> filters) {
+            this.filters = filters;
+        }
+
+        @Override
+        public boolean matches(Map<String, String> tags) {
+            for (TagFilter f : filters) {
+                if (!f.matches(tags)) return false;
+            }
+            return true;
+        }
+
+        /**
+         * Intersects the positive terms smallest estimate first, then
+         * subtracts the negated ones instead of intersecting with their
+         * complements. Terms left when few candidates remain are checked
+         * per candidate.
+         */
+        @Override
+        RoaringBitmap select(TimeBlock block, SeriesRegistry registry) {
+            List<TagFilter> positive = new ArrayList<>(filters.size());
+            List<TagFilter> negated = new ArrayList<>();
+            for (TagFilter f : filters) {
+                if (f instanceof Not) negated.add(((Not) f).filter);
+                else positive.add(f);
+            }
+            int[] estimates = new int[positive.size()];
+            Integer[] order = new Integer[positive.size()];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+                estimates[i] = positive.get(i).estimate(block);
+            }
+            Arrays.sort(order, (a, b) -> Integer.compare(estimates[a], estimates[b]));
+            RoaringBitmap result = order.length == 0 ? block.allSeries() : null;
+            for (int i = 0; i < order.length; i++) {
+                TagFilter f = positive.get(order[i]);
+                if (result == null) {
+                    result = f.select(block, registry);
+                } else if ((long) result.cardinality() * CHECK_RATIO < estimates[order[i]]) {
+                    List<TagFilter> rest = new ArrayList<>();
+                    for (int j = i; j < order.length; j++) rest.add(positive.get(order[j]));
+                    return check(result, rest, negated, registry);
+                } else {
+                    result = RoaringBitmap.and(result, f.select(block, registry));
+                }
+                if (result.isEmpty()) return result;
+            }
+            for (int i = 0; i < negated.size(); i++) {
+                TagFilter f = negated.get(i);
+                if ((long) result.cardinality() * CHECK_RATIO < f.estimate(block)) {
+                    return check(result, Collections.emptyList(), negated.subList(i, negated.size()), registry);
+                }
+                result = RoaringBitmap.andNot(result, f.select(block, registry));
+                if (result.isEmpty()) return result;
+            }
+            return result;
+        }
+
+        /**
+         * Candidates whose tags match every positive and no negated filter.
+         */
+        private static RoaringBitmap check(RoaringBitmap candidates, List<TagFilter> positive,
+                                           List<TagFilter> negated, SeriesRegistry registry) {
+            RoaringBitmap result = new RoaringBitmap();
+            next:
+            for (PrimitiveIterator.OfInt it = candidates.iterator(); it.hasNext(); ) {
+                int id = it.nextInt();
+                Map<String, String> tags = registry.get(id).tags;
+                for (TagFilter f : positive) {
+                    if (!f.matches(tags)) continue next;
+                }
+                for (TagFilter f : negated) {
+                    if (f.matches(tags)) continue next;
+                }
+                result.add(id);
+            }
+            return result;
+        }
+
+        @Override
+        int estimate(TimeBlock block) {
+            int n = block.allSeries().cardinality();
+            for (TagFilter f : filters) {
+                if (!(f instanceof Not)) n = Math.min(n, f.estimate(block));
+            }
+            return n;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof And && filters.equals(((And) o).filters);
+        }
+
+        @Override
+        public int hashCode() {
+            return filters.hashCode() * 31 + 3;
+        }
+
+        @Override
+        public String toString() {
+            return join(filters, " and ");
+        }
+    }
+
+    private static final class Or extends TagFilter {
+        private final List<TagFilter> filters;
+
+        Or(List<TagFilter> filters) {
+            this.filters = filters;
+        }
+
+        @Override
+        public boolean matches(Map<String, String> tags) {
+            for (TagFilter f : filters) {
+                if (f.matches(tags)) return true;
+            }
+            return false;
+        }
+
+        @Override
+        RoaringBitmap select(TimeBlock block, SeriesRegistry registry) {
+            RoaringBitmap result = null;
+            for (TagFilter f : filters) {
+                RoaringBitmap bm = f.select(block, registry);
+                result = result == null ? bm : RoaringBitmap.or(result, bm);
+            }
+            return result == null ? new RoaringBitmap() : result;
+        }
+
+        @Override
+        int estimate(TimeBlock block) {
+            long n = 0;
+            for (TagFilter f : filters) n += f.estimate(block);
+            return (int) Math.min(n, block.allSeries().cardinality());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Or && filters.equals(((Or) o).filters);
+        }
+
+        @Override
+        public int hashCode() {
+            return filters.hashCode() * 31 + 4;
+        }
+
+        @Override
+        public String toString() {
+            return join(filters, " or ");
+        }
+    }
+
+    private static final class Not extends TagFilter {
+        final TagFilter filter;
+
+        Not(TagFilter filter) {
+            this.filter = filter;
+        }
+
+        @Override
+        public boolean matches(Map<String, String> tags) {
+            return !filter.matches(tags);
+        }
+
+        @Override
+        RoaringBitmap select(TimeBlock block, SeriesRegistry registry) {
+            return RoaringBitmap.andNot(block.allSeries(), filter.select(block, registry));
+        }
+
+        @Override
+        int estimate(TimeBlock block) {
+            return block.allSeries().cardinality();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Not && filter.equals(((Not) o).filter);
+        }
+
+        @Override
+        public int hashCode() {
+            return filter.hashCode() * 31 + 5;
+        }
+
+        @Override
+        public String toString() {
+            return "not (" + filter + ")";
+        }
+    }
+
+    private static String quote(String value) {
+        return '"' + value.replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+    }
+
+    private static String join(List<TagFilter> filters, String op) {
+        StringBuilder sb = new StringBuilder("(");
+        for (int i = 0; i < filters.size(); i++) {
+            if (i > 0) sb.append(op);
+            sb.append(filters.get(i));
+        }
+        return sb.append(')').toString();
+    }
+}
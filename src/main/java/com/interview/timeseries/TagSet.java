@@ -0,0 +1,135 @@
+package com.interview.timeseries;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Immutable tag set sorted by key, shared by every point of a series.
+ *
+ * Honours the Map equals/hashCode contract, so a plain HashMap of tags can
+ * be used to look up the canonical TagSet in a hash map. The hash code is
+ * computed once, and two TagSets from the registry are equal only if they
+ * are the same instance.
+ */
+final class TagSet extends AbstractMap<String, String> {
+    static final TagSet EMPTY = new TagSet(new String[0], new String[0]);
+
+    private final String[] keys;
+    private final String[] values;
+    private final int hash;
+    private Set<Map.Entry<String, String>> entrySet;
+
+    private TagSet(String[] keys, String[] values) {
+        this.keys = keys;
+        this.values = values;
+        int h = 0;
+        for (int i = 0; i < keys.length; i++) {
+            h += keys[i].hashCode() ^ values[i].hashCode();
+        }
+        this.hash = h;
+    }
+
+    /**
+     * Build a sorted, immutable copy of the given tags.
+     * @param tags Tags as key-value pairs (can be null)
+     * @return The tag set, never null
+     * @throws IllegalArgumentException If a key or a value is null
+     */
+    static TagSet of(Map<String, String> tags) {
+        if (tags == null || tags.isEmpty()) return EMPTY;
+        if (tags instanceof TagSet) return (TagSet) tags;
+        String[] keys = new String[tags.size()];
+        String[] values = new String[keys.length];
+        int n = 0;
+        for (Map.Entry<String, String> e : tags.entrySet()) {
+            if (e.getKey() == null) throw new IllegalArgumentException("null tag key");
+            if (e.getValue() == null) throw new IllegalArgumentException("null value for tag " + e.getKey());
+            keys[n++] = e.getKey();
+        }
+        Arrays.sort(keys);
+        for (int i = 0; i < keys.length; i++) values[i] = tags.get(keys[i]);
+        return new TagSet(keys, values);
+    }
+
+    int indexOf(Object key) {
+        if (!(key instanceof String)) return -1;
+        return Arrays.binarySearch(keys, key);
+    }
+
+    String keyAt(int i) {
+        return keys[i];
+    }
+
+    String valueAt(int i) {
+        return values[i];
+    }
+
+    @Override
+    public int size() {
+        return keys.length;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public String get(Object key) {
+        int i = indexOf(key);
+        return i >= 0 ? values[i] : null;
+    }
+
+    @Override
+    public Set<Map.Entry<String, String>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new AbstractSet<Map.Entry<String, String>>() {
+                @Override
+                public Iterator<Map.Entry<String, String>> iterator() {
+                    return new Iterator<Map.Entry<String, String>>() {
+                        private int i;
+
+                        @Override
+                        public boolean hasNext() {
+                            return i < keys.length;
+                        }
+
+                        @Override
+                        public Map.Entry<String, String> next() {
+                            if (i >= keys.length) throw new NoSuchElementException();
+                            Map.Entry<String, String> e = new SimpleImmutableEntry<>(keys[i], values[i]);
+                            i++;
+                            return e;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return keys.length;
+                }
+            };
+        }
+        return entrySet;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) return true;
+        if (o instanceof TagSet) {
+            TagSet t = (TagSet) o;
+            return hash == t.hash && Arrays.equals(keys, t.keys) && Arrays.equals(values, t.values);
+        }
+        return super.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
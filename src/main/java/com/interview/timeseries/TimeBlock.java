@@ -0,0 +1,132 @@
+package com.interview.timeseries;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Fixed time partition [start, end) of one metric's data.
+ *
+ * A block owns the columns of every series that has points in its range
+ * and a local posting index over those series, so dropping a block for
+ * retention releases points and index entries together. The min/max
+ * timestamps seen let queries skip blocks outside their time range.
+ */
+final class TimeBlock {
+    static final long BLOCK_MILLIS = 2L * 60 * 60 * 1000; // 2h
+
+    final long start;
+    final long end;
+    private long minTs = Long.MAX_VALUE;
+    private long maxTs = Long.MIN_VALUE;
+    // series -> its points inside this block
+    private final Map<Series, SeriesColumns> columns = new HashMap<>();
+    // local postings: tagKey -> sorted tagValue dictionary -> series IDs present in this block
+    private final Map<String, NavigableMap<String, RoaringBitmap>> postings = new HashMap<>();
+    private final RoaringBitmap allSeries = new RoaringBitmap();
+
+    TimeBlock(long start) {
+        this.start = start;
+        this.end = start > Long.MAX_VALUE - BLOCK_MILLIS ? Long.MAX_VALUE : start + BLOCK_MILLIS;
+    }
+
+    /**
+     * Start of the block containing the given timestamp, saturated to
+     * Long.MIN_VALUE for timestamps below the lowest representable block.
+     */
+    static long alignedStart(long timestamp) {
+        long block = Math.floorDiv(timestamp, BLOCK_MILLIS);
+        return block < Long.MIN_VALUE / BLOCK_MILLIS ? Long.MIN_VALUE : block * BLOCK_MILLIS;
+    }
+
+    /**
+     * Add a point of the series to this block.
+     * @return The series columns if the point went to their out-of-order buffer, else null
+     */
+    SeriesColumns append(Series series, long timestamp, double value) {
+        SeriesColumns cols = columns.get(series);
+        if (cols == null) {
+            cols = new SeriesColumns();
+            index(series, cols);
+        }
+        boolean buffered = cols.add(timestamp, value);
+        if (timestamp < minTs) minTs = timestamp;
+        if (timestamp > maxTs) maxTs = timestamp;
+        return buffered ? cols : null;
+    }
+
+    /**
+     * Put restored columns of a series (from a checkpoint) into this block.
+     */
+    void restore(Series series, SeriesColumns cols) {
+        index(series, cols);
+        if (cols.size() == 0) return;
+        minTs = Math.min(minTs, cols.minTimestamp());
+        maxTs = Math.max(maxTs, cols.maxTimestamp());
+    }
+
+    private void index(Series series, SeriesColumns cols) {
+        columns.put(series, cols);
+        allSeries.add(series.id);
+        for (Map.Entry<String, String> tag : series.tags.entrySet()) {
+            postings.computeIfAbsent(tag.getKey(), k -> new TreeMap<>())
+                .computeIfAbsent(tag.getValue(), v -> new RoaringBitmap())
+                .add(series.id);
+        }
+    }
+
+    /**
+     * Whether any point of this block can fall in [timeStart, timeEnd).
+     */
+    boolean overlaps(long timeStart, long timeEnd) {
+        return minTs < timeEnd && maxTs >= timeStart;
+    }
+
+    SeriesColumns columns(Series series) {
+        return columns.get(series);
+    }
+
+    Set<Map.Entry<Series, SeriesColumns>> allColumns() {
+        return columns.entrySet();
+    }
+
+    /**
+     * Series IDs in this block selected by the filter.
+     * @return The matching IDs, possibly shared with the index and not to be modified
+     */
+    RoaringBitmap select(TagFilter filter, SeriesRegistry registry) {
+        return filter.select(this, registry);
+    }
+
+    /**
+     * Sorted values of the tag key in this block with the IDs of their series.
+     */
+    NavigableMap<String, RoaringBitmap> postings(String key) {
+        NavigableMap<String, RoaringBitmap> values = postings.get(key);
+        return values != null ? values : Collections.emptyNavigableMap();
+    }
+
+    RoaringBitmap allSeries() {
+        return allSeries;
+    }
+
+    /**
+     * Compress every series head once the block is out of the active write window.
+     */
+    void seal() {
+        for (SeriesColumns cols : columns.values()) cols.seal();
+        allSeries.runOptimize();
+        postings.values().forEach(byVal -> byVal.values().forEach(RoaringBitmap::runOptimize));
+    }
+
+    /**
+     * Trim points with timestamp < cutoff from a block straddling the retention cutoff.
+     */
+    void evictBefore(long cutoff) {
+        for (SeriesColumns cols : columns.values()) cols.evictBefore(cutoff);
+        minTs = Math.max(minTs, cutoff);
+    }
+}
@@ -1,8 +1,11 @@
 package com.interview.timeseries;
 
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * Interface for the Time Series Store.
@@ -20,8 +23,56 @@ public interface TimeSeriesStore {
      * @param value The value of the data point
      * @param tags Optional tags as key-value pairs (can be null or empty)
      * @return true if the insert was successful, false otherwise
+     * @throws IllegalArgumentException If a tag key or value is null
      */
     boolean insert(long timestamp, String metric, double value, Map<String, String> tags);
+
+    /**
+     * Inserts many data points at once. Implementations may take their
+     * locks and write their log once per batch instead of once per point.
+     *
+     * @param points The data points to insert, in any order
+     * @return true if all points were inserted, false otherwise
+     * @throws IllegalArgumentException If a tag key or value is null
+     */
+    default boolean insertBatch(List<DataPoint> points) {
+        boolean ok = true;
+        for (DataPoint p : points) {
+            ok &= insert(p.getTimestamp(), p.getMetric(), p.getValue(), p.getTags());
+        }
+        return ok;
+    }
+
+    /**
+     * Returns a handle to the series (metric, tags) for columnar batch inserts.
+     *
+     * @param metric The name of the metric
+     * @param tags Optional tags as key-value pairs (can be null or empty)
+     * @return A handle usable with insertBatch(SeriesHandle, long[], double[])
+     * @throws IllegalArgumentException If a tag key or value is null
+     */
+    default SeriesHandle seriesHandle(String metric, Map<String, String> tags) {
+        return new SeriesHandle(metric, tags);
+    }
+
+    /**
+     * Inserts points of one series given as parallel timestamp and value arrays.
+     *
+     * @param series The series, see seriesHandle()
+     * @param timestamps The Unix timestamps in milliseconds
+     * @param values The values, one per timestamp
+     * @return true if all points were inserted, false otherwise
+     */
+    default boolean insertBatch(SeriesHandle series, long[] timestamps, double[] values) {
+        if (timestamps.length != values.length) {
+            throw new IllegalArgumentException("timestamps and values differ in length");
+        }
+        boolean ok = true;
+        for (int i = 0; i < timestamps.length; i++) {
+            ok &= insert(timestamps[i], series.getMetric(), values[i], series.getTags());
+        }
+        return ok;
+    }
     
     /**
      * Queries data points for a metric within a time range with optional filters.
@@ -33,7 +84,186 @@ public interface TimeSeriesStore {
      * @return A list of matching data points
      */
     List<DataPoint> query(String metric, long timeStart, long timeEnd, Map<String, String> filters);
+
+    /**
+     * Queries data points for a metric within a time range, selecting
+     * series with a filter expression, e.g.
+     * {@code and(prefix("host", "web-"), not(eq("dc", "eu")))}.
+     *
+     * @param metric The name of the metric to query
+     * @param filter The series to select, TagFilter.ALL for every series
+     * @param timeStart The inclusive start time in milliseconds
+     * @param timeEnd The exclusive end time in milliseconds
+     * @return A list of matching data points
+     */
+    default List<DataPoint> query(String metric, TagFilter filter, long timeStart, long timeEnd) {
+        List<DataPoint> result = new ArrayList<>();
+        for (DataPoint p : query(metric, timeStart, timeEnd, (Map<String, String>) null)) {
+            if (filter.matches(p.getTags())) result.add(p);
+        }
+        return result;
+    }
+
+    /**
+     * Streams the points a query with the same arguments would return, in
+     * the same order, without materializing them.
+     *
+     * @param metric The name of the metric to query
+     * @param timeStart The inclusive start time in milliseconds
+     * @param timeEnd The exclusive end time in milliseconds
+     * @param filters Optional tag filters as key-value pairs (can be null or empty)
+     * @return A cursor positioned before the first matching point
+     */
+    default SeriesCursor cursor(String metric, long timeStart, long timeEnd, Map<String, String> filters) {
+        return ListCursor.of(query(metric, timeStart, timeEnd, filters));
+    }
+
+    /**
+     * @see #cursor(String, long, long, Map)
+     * @see #query(String, TagFilter, long, long)
+     */
+    default SeriesCursor cursor(String metric, TagFilter filter, long timeStart, long timeEnd) {
+        return ListCursor.of(query(metric, filter, timeStart, timeEnd));
+    }
+
+    /**
+     * Returns the newest point of every series of the metric matching the filters.
+     *
+     * @param metric The name of the metric
+     * @param filters Optional tag filters as key-value pairs (can be null or empty)
+     * @return One data point per matching series
+     */
+    default List<DataPoint> latest(String metric, Map<String, String> filters) {
+        Map<Map<String, String>, DataPoint> newest = new LinkedHashMap<>();
+        for (DataPoint p : query(metric, Long.MIN_VALUE, Long.MAX_VALUE, filters)) newest.put(p.getTags(), p);
+        return new ArrayList<>(newest.values());
+    }
+
+    /**
+     * Aggregates the values of the points a query with the same arguments
+     * would return, without returning the points.
+     *
+     * @param metric The name of the metric to query
+     * @param timeStart The inclusive start time in milliseconds
+     * @param timeEnd The exclusive end time in milliseconds
+     * @param filters Optional tag filters as key-value pairs (can be null or empty)
+     * @param aggregation The aggregate to compute
+     * @return The aggregate; NaN for MIN, MAX and AVG when no point matches
+     */
+    default double aggregate(String metric, long timeStart, long timeEnd, Map<String, String> filters,
+                             Aggregation aggregation) {
+        return aggregate(metric, TagFilter.of(filters), timeStart, timeEnd, aggregation);
+    }
+
+    /**
+     * @see #aggregate(String, long, long, Map, Aggregation)
+     * @see #query(String, TagFilter, long, long)
+     */
+    default double aggregate(String metric, TagFilter filter, long timeStart, long timeEnd,
+                             Aggregation aggregation) {
+        PartialAggregate agg = new PartialAggregate();
+        for (DataPoint p : query(metric, filter, timeStart, timeEnd)) agg.add(p.getValue());
+        return agg.result(aggregation);
+    }
     
+    /**
+     * Aggregates the points a query with the same arguments would return
+     * into fixed time buckets of the given step, starting at timeStart.
+     *
+     * @param metric The name of the metric to query
+     * @param timeStart The inclusive start time in milliseconds, start of the first bucket
+     * @param timeEnd The exclusive end time in milliseconds
+     * @param filters Optional tag filters as key-value pairs (can be null or empty)
+     * @param step The bucket width in milliseconds
+     * @param aggregation The aggregate to compute per bucket
+     * @return One value per bucket
+     * @throws IllegalArgumentException If the step is not positive or the
+     *         range holds more buckets than an array can
+     */
+    default DownsampledSeries downsample(String metric, long timeStart, long timeEnd, Map<String, String> filters,
+                                         long step, Aggregation aggregation) {
+        return downsample(metric, TagFilter.of(filters), timeStart, timeEnd, step, aggregation);
+    }
+
+    /**
+     * @see #downsample(String, long, long, Map, long, Aggregation)
+     * @see #query(String, TagFilter, long, long)
+     */
+    default DownsampledSeries downsample(String metric, TagFilter filter, long timeStart, long timeEnd,
+                                         long step, Aggregation aggregation) {
+        PartialAggregate[] buckets = DownsampledSeries.buckets(timeStart, timeEnd, step);
+        for (DataPoint p : query(metric, filter, timeStart, timeEnd)) {
+            buckets[DownsampledSeries.bucket(p.getTimestamp(), timeStart, step)].add(p.getValue());
+        }
+        return DownsampledSeries.of(timeStart, step, aggregation, buckets);
+    }
+
+    /**
+     * Aggregates the points a query with the same arguments would return,
+     * separately for each value of the groupBy tag. Points of series
+     * without that tag are left out.
+     *
+     * @param metric The name of the metric to query
+     * @param timeStart The inclusive start time in milliseconds
+     * @param timeEnd The exclusive end time in milliseconds
+     * @param filters Optional tag filters as key-value pairs (can be null or empty)
+     * @param groupBy The tag key to group by
+     * @param aggregation The aggregate to compute per group
+     * @return Tag value to aggregate, sorted by tag value
+     */
+    default Map<String, Double> aggregateBy(String metric, long timeStart, long timeEnd, Map<String, String> filters,
+                                            String groupBy, Aggregation aggregation) {
+        return aggregateBy(metric, TagFilter.of(filters), timeStart, timeEnd, groupBy, aggregation);
+    }
+
+    /**
+     * @see #aggregateBy(String, long, long, Map, String, Aggregation)
+     * @see #query(String, TagFilter, long, long)
+     */
+    default Map<String, Double> aggregateBy(String metric, TagFilter filter, long timeStart, long timeEnd,
+                                            String groupBy, Aggregation aggregation) {
+        Map<String, PartialAggregate> groups = new TreeMap<>();
+        for (DataPoint p : query(metric, filter, timeStart, timeEnd)) {
+            String group = p.getTags().get(groupBy);
+            if (group != null) groups.computeIfAbsent(group, g -> new PartialAggregate()).add(p.getValue());
+        }
+        Map<String, Double> result = new TreeMap<>();
+        groups.forEach((group, agg) -> result.put(group, agg.result(aggregation)));
+        return result;
+    }
+
+    /**
+     * Downsamples the points a query with the same arguments would return,
+     * separately for each value of the groupBy tag. Points of series
+     * without that tag are left out.
+     *
+     * @return Tag value to its downsampled series, sorted by tag value
+     * @see #downsample(String, long, long, Map, long, Aggregation)
+     */
+    default Map<String, DownsampledSeries> downsampleBy(String metric, long timeStart, long timeEnd,
+                                                        Map<String, String> filters, String groupBy,
+                                                        long step, Aggregation aggregation) {
+        return downsampleBy(metric, TagFilter.of(filters), timeStart, timeEnd, groupBy, step, aggregation);
+    }
+
+    /**
+     * @see #downsampleBy(String, long, long, Map, String, long, Aggregation)
+     * @see #query(String, TagFilter, long, long)
+     */
+    default Map<String, DownsampledSeries> downsampleBy(String metric, TagFilter filter, long timeStart, long timeEnd,
+                                                        String groupBy, long step, Aggregation aggregation) {
+        Map<String, PartialAggregate[]> groups = new TreeMap<>();
+        for (DataPoint p : query(metric, filter, timeStart, timeEnd)) {
+            String group = p.getTags().get(groupBy);
+            if (group == null) continue;
+            groups.computeIfAbsent(group, g -> DownsampledSeries.buckets(timeStart, timeEnd, step))
+                [DownsampledSeries.bucket(p.getTimestamp(), timeStart, step)].add(p.getValue());
+        }
+        Map<String, DownsampledSeries> result = new TreeMap<>();
+        groups.forEach((group, buckets) -> result.put(group, DownsampledSeries.of(timeStart, step, aggregation, buckets)));
+        return result;
+    }
+
     /**
      * Initializes the store, including recovery from persistent storage if available.
      * This method should be called before any other operations.
@@ -1,42 +1,77 @@
 package com.interview.timeseries;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.BitSet;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.PrimitiveIterator;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
 
 /**
  * Optimized TimeSeriesStore implementation.
  * 
  */
 public class TimeSeriesStoreImpl implements TimeSeriesStore {
-    private static final String LOG_FILE = "data_store.log";
     private static long retentionTime = 24L * 60 * 60 * 1000; // 24h
+    private static final long MAINTENANCE_MILLIS = 1000;
 
-    // flat store: metric -> time-sorted list of DataPoint
-    private final ConcurrentMap<String, List<DataPoint>> flatStore = new ConcurrentHashMap<>();
-    // bitmaps: metric -> tagKey -> tagValue -> BitSet of indices in flatStore list
-    private final ConcurrentMap<
-        String,
-        ConcurrentMap<String, ConcurrentMap<String, BitSet>>> tagBitmaps = new ConcurrentHashMap<>();
+    // series registry: (metric, tags) -> series with an ID and interned tags
+    private final SeriesRegistry registry = new SeriesRegistry();
+    // metric -> time blocks, each with columnar series data and local tag bitmaps,
+    // guarded by the metric's own lock
+    private final ConcurrentMap<String, MetricStore> metricStores = new ConcurrentHashMap<>();
+    // merges out-of-order buffers and writes checkpoints in the background
+    private ScheduledExecutorService maintenance;
 
-    // read-write lock for thread safety
+    // lifecycle lock: inserts, queries and merges share the read lock and then
+    // take the metric's lock; startup, checkpoints and shutdown take the
+    // write lock to see a consistent state across all metrics
     private final ReentrantReadWriteLock rwLock = new ReentrantReadWriteLock();
 
-    // writer for persistence
-    private BufferedWriter writer;
+    private final StoreOptions options;
+
+    // binary write-ahead log for persistence, in segments, with group commit
+    private WalSegments segments;
+    private GroupCommitLog wal;
+    // segment index of the newest checkpoint, -1 if none
+    private volatile long lastCheckpoint = -1;
+    private final Object checkpointLock = new Object();
+    // results of repeated queries, null if disabled
+    private final QueryCache cache;
+    // captured points from which queries run on the fork/join pool
+    private final long parallelThreshold;
+
+    public TimeSeriesStoreImpl() {
+        this(new StoreOptions());
+    }
+
+    public TimeSeriesStoreImpl(StoreOptions options) {
+        this.options = options;
+        this.cache = options.getQueryCacheCapacity() > 0 ? new QueryCache(options.getQueryCacheCapacity()) : null;
+        this.parallelThreshold = options.getParallelQueryThreshold();
+    }
 
     // configure retention time in milliseconds
     public static void setRetentionTime(long millis) {
@@ -47,25 +82,38 @@ public class TimeSeriesStoreImpl implements TimeSeriesStore {
     public boolean initialize() {
         rwLock.writeLock().lock();
         try {
-            Path path = Paths.get(LOG_FILE);
-            if (Files.exists(path)) {
-                System.out.println("Recovering from existing log file: " + LOG_FILE);
-                try (BufferedReader reader = Files.newBufferedReader(path)) {
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        DataPoint dp = parseLine(line);
-                        indexInMemory(dp);
-                    }
-                }
-                setRetentionTime(retentionTime);
-                evictOldData();
+            Files.createDirectories(options.getDataDirectory());
+            segments = new WalSegments(options.getDataDirectory());
+            long checkpoint = segments.latestCheckpoint();
+            if (checkpoint >= 0) {
+                System.out.println("Recovering from checkpoint: " + segments.checkpoint(checkpoint));
+                Checkpoint.load(segments.checkpoint(checkpoint), new Restore());
+                // left over if the last cleanup was interrupted
+                segments.deleteBefore(checkpoint);
+            }
+            long next = Math.max(checkpoint, 0);
+            List<Path> replay = new ArrayList<>();
+            for (long index : segments.segmentIndexes()) {
+                if (index < checkpoint) continue;
+                replay.add(segments.segment(index));
+                next = index + 1;
+            }
+            if (!replay.isEmpty()) {
+                // a torn tail is ignored; new records go to a fresh segment
+                SegmentReplay.replay(replay, options.getRecoveryThreads(), new Recovery(),
+                    options.getRecoveryProgress());
             }
-            writer = Files.newBufferedWriter(
-                path,
-                StandardOpenOption.CREATE,
-                StandardOpenOption.WRITE,
-                StandardOpenOption.APPEND
-            );
+            evictOldData();
+            lastCheckpoint = checkpoint;
+            wal = new GroupCommitLog(segments, next, options.getSegmentSizeBytes(),
+                options.getDurability(), options.getSyncIntervalMillis());
+            maintenance = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "store-maintenance");
+                t.setDaemon(true);
+                return t;
+            });
+            maintenance.scheduleWithFixedDelay(this::runMaintenance,
+                MAINTENANCE_MILLIS, MAINTENANCE_MILLIS, TimeUnit.MILLISECONDS);
             return true;
         } catch (IOException e) {
             e.printStackTrace();
@@ -77,67 +125,548 @@ public class TimeSeriesStoreImpl implements TimeSeriesStore {
 
     @Override
     public boolean insert(long timestamp, String metric, double value, Map<String, String> tags) {
-        DataPoint dp = new DataPoint(timestamp, metric, value, tags);
-        rwLock.writeLock().lock();
+        return await(insertAsync(timestamp, metric, value, tags));
+    }
+
+    private static boolean await(CompletableFuture<Void> logged) {
         try {
-            indexInMemory(dp);
-            writer.write(dp.toString()); writer.newLine(); writer.flush();
+            logged.join();
             return true;
-        } catch (IOException e) {
-            e.printStackTrace(); return false;
+        } catch (CompletionException e) {
+            e.getCause().printStackTrace(); return false;
+        }
+    }
+
+    /**
+     * Inserts a new data point without waiting for it to be durable. The point
+     * is visible to queries when this returns; the future completes once its
+     * log record is durable under the configured Durability, so concurrent
+     * inserts are committed to the log in batches.
+     *
+     * @return A future completed when the point is durable, or exceptionally if logging failed
+     */
+    public CompletableFuture<Void> insertAsync(long timestamp, String metric, double value, Map<String, String> tags) {
+        rwLock.readLock().lock();
+        try {
+            Series series = resolveSeries(metric, tags);
+            MetricStore ms = metricStore(series.metric);
+            ms.lock.writeLock().lock();
+            try {
+                ms.append(series, timestamp, value);
+                if (cache != null) cache.invalidate(series.metric, timestamp, timestamp);
+                // logged under the metric lock so the log keeps each metric's insert order
+                return wal.append(series, timestamp, value);
+            } finally {
+                ms.lock.writeLock().unlock();
+            }
         } finally {
-            rwLock.writeLock().unlock();
+            rwLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Inserts the points grouped by metric: each metric's lock is taken once
+     * and its points are logged as one group of records.
+     */
+    @Override
+    public boolean insertBatch(List<DataPoint> points) {
+        return await(insertBatchAsync(points));
+    }
+
+    /**
+     * Inserts the points like insertBatch without waiting for them to be durable.
+     *
+     * @return A future completed when every point is durable, or exceptionally if logging failed
+     */
+    public CompletableFuture<Void> insertBatchAsync(List<DataPoint> points) {
+        List<CompletableFuture<Void>> logged = new ArrayList<>();
+        rwLock.readLock().lock();
+        try {
+            // keeps the order of points within each metric
+            Map<String, Batch> byMetric = new LinkedHashMap<>();
+            for (DataPoint p : points) {
+                Series series = resolveSeries(p.getMetric(), p.getTags());
+                byMetric.computeIfAbsent(series.metric, k -> new Batch()).add(series, p.getTimestamp(), p.getValue());
+            }
+            for (Map.Entry<String, Batch> e : byMetric.entrySet()) {
+                Batch batch = e.getValue();
+                MetricStore ms = metricStore(e.getKey());
+                ms.lock.writeLock().lock();
+                try {
+                    for (int i = 0; i < batch.size; i++) {
+                        ms.append(batch.series[i], batch.timestamps[i], batch.values[i]);
+                    }
+                    invalidate(e.getKey(), batch.timestamps, batch.size);
+                    logged.add(wal.appendBatch(batch.series, null, batch.timestamps, batch.values, 0, batch.size));
+                } finally {
+                    ms.lock.writeLock().unlock();
+                }
+            }
+        } finally {
+            rwLock.readLock().unlock();
+        }
+        return CompletableFuture.allOf(logged.toArray(new CompletableFuture<?>[0]));
+    }
+
+    @Override
+    public SeriesHandle seriesHandle(String metric, Map<String, String> tags) {
+        rwLock.readLock().lock();
+        try {
+            return new SeriesHandle(this, resolveSeries(metric, tags));
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Inserts the points under one lock acquisition and logs them as grouped records.
+     */
+    @Override
+    public boolean insertBatch(SeriesHandle handle, long[] timestamps, double[] values) {
+        if (timestamps.length != values.length) {
+            throw new IllegalArgumentException("timestamps and values differ in length");
+        }
+        if (timestamps.length == 0) return true;
+        CompletableFuture<Void> logged;
+        rwLock.readLock().lock();
+        try {
+            Series series = handle.owner == this ? handle.series : resolveSeries(handle.getMetric(), handle.getTags());
+            MetricStore ms = metricStore(series.metric);
+            ms.lock.writeLock().lock();
+            try {
+                for (int i = 0; i < timestamps.length; i++) ms.append(series, timestamps[i], values[i]);
+                invalidate(series.metric, timestamps, timestamps.length);
+                logged = wal.appendBatch(null, series, timestamps, values, 0, timestamps.length);
+            } finally {
+                ms.lock.writeLock().unlock();
+            }
+        } finally {
+            rwLock.readLock().unlock();
+        }
+        return await(logged);
+    }
+
+    /**
+     * Drop cached results of the metric overlapping the batch's time span.
+     */
+    private void invalidate(String metric, long[] timestamps, int size) {
+        if (cache == null || size == 0) return;
+        long min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+        for (int i = 0; i < size; i++) {
+            min = Math.min(min, timestamps[i]);
+            max = Math.max(max, timestamps[i]);
+        }
+        cache.invalidate(metric, min, max);
+    }
+
+    /**
+     * Result of the query from the cache if enabled, else computed (and
+     * cached). The entry is reserved before computing, see QueryCache.
+     * @param params Query parameters besides metric, range and filter
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T cached(String metric, long timeStart, long timeEnd, TagFilter filter, Supplier<T> query,
+                         ToLongFunction<T> cost, Object... params) {
+        if (cache == null) return query.get();
+        List<Object> key = QueryCache.key(metric, timeStart, timeEnd, filter, params);
+        Object hit = cache.get(key);
+        if (hit != null) return (T) hit;
+        QueryCache.Entry entry = cache.reserve(key, metric, timeStart, timeEnd);
+        boolean completed = false;
+        try {
+            T result = query.get();
+            cache.complete(entry, result, cost.applyAsLong(result));
+            completed = true;
+            return result;
+        } finally {
+            // a failed query must not leave its reservation behind
+            if (!completed) cache.release(entry);
         }
     }
 
+    /**
+     * The matching points are captured as snapshots under the metric's read
+     * lock and decoded and merged after it is released, on first access to
+     * the returned list (see LazyResult). The list is immutable and does not
+     * change with later inserts, merges or eviction.
+     */
     @Override
     public List<DataPoint> query(String metric, long timeStart, long timeEnd, Map<String, String> filters) {
+        return query(metric, TagFilter.of(filters), timeStart, timeEnd);
+    }
+
+    @Override
+    public List<DataPoint> query(String metric, TagFilter filter, long timeStart, long timeEnd) {
+        return cached(metric, timeStart, timeEnd, filter, () -> scan(metric, filter, timeStart, timeEnd),
+            List::size, "query");
+    }
+
+    private List<DataPoint> scan(String metric, TagFilter filter, long timeStart, long timeEnd) {
+        List<List<SeriesSnapshot>> blocks = capture(metric, timeStart, timeEnd, filter, 0);
+        if (blocks.isEmpty()) return Collections.emptyList();
+        if (blocks.size() == 1 && blocks.get(0).size() == 1) {
+            SeriesSnapshot only = blocks.get(0).get(0);
+            QueryResult view = only.points.headView(only.series, timeStart, timeEnd);
+            if (view != null) return view;
+        }
+        return new LazyResult(metric, () -> merge(blocks, timeStart, timeEnd),
+            () -> new MergeCursor(blocks, timeStart, timeEnd));
+    }
+
+    /**
+     * Merge the captured blocks into columns, in parallel for large results.
+     */
+    private QueryResult merge(List<List<SeriesSnapshot>> blocks, long timeStart, long timeEnd) {
+        if (points(blocks) >= parallelThreshold) return parallelScan(blocks, timeStart, timeEnd);
+        QueryResult.Builder result = new QueryResult.Builder();
+        MergeCursor cursor = new MergeCursor(blocks, timeStart, timeEnd);
+        while (cursor.next()) result.add(cursor.series(), cursor.timestamp(), cursor.value());
+        return result.build();
+    }
+
+    /**
+     * Merge a large result on the fork/join pool. Blocks are disjoint in
+     * time, and so are halves of a block's time range, so each is merged by
+     * its own task and the parts are concatenated in order. A block is
+     * halved while it holds more than a task's share of the points.
+     */
+    private QueryResult parallelScan(List<List<SeriesSnapshot>> blocks, long timeStart, long timeEnd) {
+        long share = taskPoints();
+        List<ScanTask> tasks = new ArrayList<>();
+        for (List<SeriesSnapshot> block : blocks) {
+            long lo = Long.MAX_VALUE, hi = Long.MIN_VALUE;
+            for (SeriesSnapshot s : block) {
+                lo = Math.min(lo, s.minTs);
+                hi = Math.max(hi, s.maxTs);
+            }
+            // hi + 1 would wrap for a point at Long.MAX_VALUE
+            long end = hi == Long.MAX_VALUE ? timeEnd : Math.min(hi + 1, timeEnd);
+            split(block, Math.max(lo, timeStart), end, blockPoints(block), share, tasks);
+        }
+        List<QueryResult.Builder> parts = new ArrayList<>(tasks.size());
+        for (ScanTask task : ForkJoinTask.invokeAll(tasks)) parts.add(task.join());
+        return QueryResult.Builder.concat(parts);
+    }
+
+    /**
+     * Add tasks merging [timeStart, timeEnd) of the block, halving the range
+     * while its points, assumed evenly spread, exceed the share.
+     */
+    private static void split(List<SeriesSnapshot> block, long timeStart, long timeEnd, long points, long share,
+                              List<ScanTask> tasks) {
+        if (points <= share || timeEnd - timeStart < 2) {
+            tasks.add(new ScanTask(block, timeStart, timeEnd));
+            return;
+        }
+        long mid = timeStart + (timeEnd - timeStart) / 2;
+        split(block, timeStart, mid, points / 2, share, tasks);
+        split(block, mid, timeEnd, points - points / 2, share, tasks);
+    }
+
+    /**
+     * Points per fork/join task: a query at the threshold gets about one
+     * task per core, larger ones more for the pool to balance.
+     */
+    private long taskPoints() {
+        return Math.max(1, parallelThreshold / ForkJoinPool.getCommonPoolParallelism());
+    }
+
+    private static long blockPoints(List<SeriesSnapshot> block) {
+        long n = 0;
+        for (SeriesSnapshot s : block) n += s.size;
+        return n;
+    }
+
+    private static long points(List<List<SeriesSnapshot>> blocks) {
+        long n = 0;
+        for (List<SeriesSnapshot> block : blocks) n += blockPoints(block);
+        return n;
+    }
+
+    /**
+     * Streams over the same snapshots as query(); series IDs are the store's.
+     */
+    @Override
+    public SeriesCursor cursor(String metric, long timeStart, long timeEnd, Map<String, String> filters) {
+        return cursor(metric, TagFilter.of(filters), timeStart, timeEnd);
+    }
+
+    @Override
+    public SeriesCursor cursor(String metric, TagFilter filter, long timeStart, long timeEnd) {
+        return new MergeCursor(capture(metric, timeStart, timeEnd, filter, 0), timeStart, timeEnd);
+    }
+
+    /**
+     * Read from the metric's latest point table, kept up to date by every
+     * insert, without touching its blocks.
+     */
+    @Override
+    public List<DataPoint> latest(String metric, Map<String, String> filters) {
         rwLock.readLock().lock();
         try {
-            List<DataPoint> flat = flatStore.get(metric);
-            if (flat == null || flat.isEmpty()) {
-                return Collections.emptyList();
+            MetricStore ms = metricStores.get(metric);
+            if (ms == null) return Collections.emptyList();
+            ms.lock.readLock().lock();
+            try {
+                return Collections.unmodifiableList(ms.latest.select(TagFilter.of(filters)));
+            } finally {
+                ms.lock.readLock().unlock();
             }
-            // no filters: binary search on flat list
-            if (filters == null || filters.isEmpty()) {
-                int lo = findFirstIndex(flat, timeStart);
-                int hi = findFirstIndex(flat, timeEnd);
-                return flat.subList(lo, hi);
-            }
-            // build combined BitSet
-            ConcurrentMap<String, ConcurrentMap<String, BitSet>> metricMap = tagBitmaps.get(metric);
-            if (metricMap == null) return Collections.emptyList();
-            BitSet combined = null;
-            // purpose of combined bitset : 
-            // for each filter, find the bitset for the tag value and combine them
-            // using AND operation to find indices that match all filters
-            for (Map.Entry<String, String> f : filters.entrySet()) {
-                ConcurrentMap<String, BitSet> byVal = metricMap.get(f.getKey());
-                if (byVal == null) return Collections.emptyList();
-                BitSet bs = byVal.get(f.getValue());
-                if (bs == null) return Collections.emptyList();
-                if (combined == null) combined = (BitSet) bs.clone();
-                else combined.and(bs);
-                if (combined.isEmpty()) return Collections.emptyList();
-            }
-            // time boundaries
-            int lo = findFirstIndex(flat, timeStart);
-            int hi = findFirstIndex(flat, timeEnd);
-            List<DataPoint> result = new ArrayList<>();
-            for (int idx = combined.nextSetBit(lo); idx >= 0 && idx < hi; idx = combined.nextSetBit(idx + 1)) {
-                result.add(flat.get(idx));
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Computed over the same snapshots as query(), folding values straight
+     * from the columns without merging series or building DataPoints.
+     */
+    @Override
+    public double aggregate(String metric, long timeStart, long timeEnd, Map<String, String> filters,
+                            Aggregation aggregation) {
+        return aggregate(metric, TagFilter.of(filters), timeStart, timeEnd, aggregation);
+    }
+
+    @Override
+    public double aggregate(String metric, TagFilter filter, long timeStart, long timeEnd, Aggregation aggregation) {
+        return cached(metric, timeStart, timeEnd, filter,
+            () -> aggregatePartial(metric, timeStart, timeEnd, filter, aggregation).result(aggregation),
+            v -> 1, "aggregate", aggregation);
+    }
+
+    /**
+     * Partial aggregate of the matching points, to be merged with other partials.
+     */
+    PartialAggregate aggregatePartial(String metric, long timeStart, long timeEnd, TagFilter filter,
+                                      Aggregation aggregation) {
+        return aggregateBuckets(metric, timeStart, timeEnd, filter, Long.MAX_VALUE, aggregation,
+            () -> new PartialAggregate[] {new PartialAggregate()})[0];
+    }
+
+    /**
+     * Bucketed like aggregate(), over the same snapshots.
+     */
+    @Override
+    public DownsampledSeries downsample(String metric, long timeStart, long timeEnd, Map<String, String> filters,
+                                        long step, Aggregation aggregation) {
+        return downsample(metric, TagFilter.of(filters), timeStart, timeEnd, step, aggregation);
+    }
+
+    @Override
+    public DownsampledSeries downsample(String metric, TagFilter filter, long timeStart, long timeEnd,
+                                        long step, Aggregation aggregation) {
+        return cached(metric, timeStart, timeEnd, filter, () -> DownsampledSeries.of(timeStart, step, aggregation,
+            downsamplePartial(metric, timeStart, timeEnd, filter, step, aggregation)),
+            DownsampledSeries::size, "downsample", step, aggregation);
+    }
+
+    /**
+     * Partial aggregates per bucket, to be merged with other partials.
+     */
+    PartialAggregate[] downsamplePartial(String metric, long timeStart, long timeEnd, TagFilter filter,
+                                         long step, Aggregation aggregation) {
+        PartialAggregate[] buckets = DownsampledSeries.buckets(timeStart, timeEnd, step);
+        if (buckets.length == 0) return buckets;
+        return aggregateBuckets(metric, timeStart, timeEnd, filter, step, aggregation,
+            () -> DownsampledSeries.buckets(timeStart, timeEnd, step));
+    }
+
+    private PartialAggregate[] aggregateBuckets(String metric, long timeStart, long timeEnd, TagFilter filter,
+                                                long step, Aggregation aggregation,
+                                                Supplier<PartialAggregate[]> buckets) {
+        boolean countOnly = aggregation == Aggregation.COUNT;
+        long tier = Rollup.tierFor(timeStart, timeEnd, step);
+        return foldAll(capture(metric, timeStart, timeEnd, filter, tier), buckets,
+            (b, s) -> fold(s, timeStart, timeEnd, step, countOnly, b), TimeSeriesStoreImpl::mergeBuckets);
+    }
+
+    /**
+     * Fold every captured series into one result, on the fork/join pool if
+     * they hold at least parallelThreshold points: each task folds its
+     * series into an empty result of its own and results are merged pairwise.
+     */
+    private <R> R foldAll(List<List<SeriesSnapshot>> blocks, Supplier<R> empty, BiConsumer<R, SeriesSnapshot> fold,
+                          BinaryOperator<R> merge) {
+        if (points(blocks) < parallelThreshold) {
+            R result = empty.get();
+            for (List<SeriesSnapshot> block : blocks) {
+                for (SeriesSnapshot s : block) fold.accept(result, s);
             }
             return result;
+        }
+        List<SeriesSnapshot> all = new ArrayList<>();
+        for (List<SeriesSnapshot> block : blocks) all.addAll(block);
+        return ForkJoinPool.commonPool().invoke(new FoldTask<>(all, taskPoints(), empty, fold, merge));
+    }
+
+    private static PartialAggregate[] mergeBuckets(PartialAggregate[] into, PartialAggregate[] from) {
+        for (int i = 0; i < into.length; i++) into[i].merge(from[i]);
+        return into;
+    }
+
+    /**
+     * Fold one series into the buckets. With a rollup slice the whole tier
+     * buckets come from it and only the unaligned edges from the points.
+     */
+    private static void fold(SeriesSnapshot s, long timeStart, long timeEnd, long step, boolean countOnly,
+                             PartialAggregate[] buckets) {
+        if (s.rollup == null) {
+            s.points.aggregate(timeStart, timeEnd, timeStart, step, countOnly, buckets);
+            return;
+        }
+        long lo = Rollup.alignUp(timeStart, s.rollup.resolution);
+        long hi = Rollup.alignDown(timeEnd, s.rollup.resolution);
+        if (timeStart < lo) s.points.aggregate(timeStart, lo, timeStart, step, countOnly, buckets);
+        s.rollup.aggregate(timeStart, step, buckets);
+        if (hi < timeEnd) s.points.aggregate(hi, timeEnd, timeStart, step, countOnly, buckets);
+    }
+
+    /**
+     * Aggregated like aggregate(), one pass putting each matching series
+     * into the group of its groupBy tag value.
+     */
+    @Override
+    public Map<String, Double> aggregateBy(String metric, long timeStart, long timeEnd, Map<String, String> filters,
+                                           String groupBy, Aggregation aggregation) {
+        return aggregateBy(metric, TagFilter.of(filters), timeStart, timeEnd, groupBy, aggregation);
+    }
+
+    @Override
+    public Map<String, Double> aggregateBy(String metric, TagFilter filter, long timeStart, long timeEnd,
+                                           String groupBy, Aggregation aggregation) {
+        return cached(metric, timeStart, timeEnd, filter, () -> {
+            Map<String, Double> result = new TreeMap<>();
+            groupPartials(metric, timeStart, timeEnd, filter, groupBy, Long.MAX_VALUE, aggregation)
+                .forEach((group, buckets) -> result.put(group, buckets[0].result(aggregation)));
+            return Collections.unmodifiableMap(result);
+        }, Map::size, "aggregateBy", groupBy, aggregation);
+    }
+
+    @Override
+    public Map<String, DownsampledSeries> downsampleBy(String metric, long timeStart, long timeEnd,
+                                                       Map<String, String> filters, String groupBy,
+                                                       long step, Aggregation aggregation) {
+        return downsampleBy(metric, TagFilter.of(filters), timeStart, timeEnd, groupBy, step, aggregation);
+    }
+
+    @Override
+    public Map<String, DownsampledSeries> downsampleBy(String metric, TagFilter filter, long timeStart, long timeEnd,
+                                                       String groupBy, long step, Aggregation aggregation) {
+        return cached(metric, timeStart, timeEnd, filter, () -> {
+            Map<String, DownsampledSeries> result = new TreeMap<>();
+            groupPartials(metric, timeStart, timeEnd, filter, groupBy, step, aggregation)
+                .forEach((group, buckets) ->
+                    result.put(group, DownsampledSeries.of(timeStart, step, aggregation, buckets)));
+            return Collections.unmodifiableMap(result);
+        }, groups -> groups.values().stream().mapToLong(DownsampledSeries::size).sum(),
+            "downsampleBy", groupBy, step, aggregation);
+    }
+
+    /**
+     * Per bucket partial aggregates of each groupBy tag value, to be merged
+     * with other partials. A step of Long.MAX_VALUE gives one bucket per group.
+     */
+    Map<String, PartialAggregate[]> groupPartials(String metric, long timeStart, long timeEnd,
+                                                  TagFilter filter, String groupBy,
+                                                  long step, Aggregation aggregation) {
+        if (step <= 0) throw new IllegalArgumentException("step must be positive");
+        boolean whole = step == Long.MAX_VALUE;
+        boolean countOnly = aggregation == Aggregation.COUNT;
+        long tier = Rollup.tierFor(timeStart, timeEnd, step);
+        Map<String, PartialAggregate[]> groups = foldAll(capture(metric, timeStart, timeEnd, filter, tier),
+            TreeMap::new, (into, s) -> {
+            String group = s.series.tags.get(groupBy);
+            if (group == null) return;
+            PartialAggregate[] buckets = into.computeIfAbsent(group, g -> whole
+                ? new PartialAggregate[] {new PartialAggregate()}
+                : DownsampledSeries.buckets(timeStart, timeEnd, step));
+            fold(s, timeStart, timeEnd, step, countOnly, buckets);
+        }, (into, from) -> {
+            from.forEach((group, buckets) -> into.merge(group, buckets, TimeSeriesStoreImpl::mergeBuckets));
+            return into;
+        });
+        // groups whose series matched the filter but have no points in the range
+        groups.values().removeIf(TimeSeriesStoreImpl::isEmpty);
+        return groups;
+    }
+
+    private static boolean isEmpty(PartialAggregate[] buckets) {
+        for (PartialAggregate b : buckets) {
+            if (b.count > 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Snapshot the matching series of a metric under its read lock, with
+     * the rollup buckets of the given tier (0 for none) inside the range.
+     * @return Per overlapping block, oldest first, the snapshots of its matching series
+     */
+    private List<List<SeriesSnapshot>> capture(String metric, long timeStart, long timeEnd,
+                                               TagFilter filter, long tier) {
+        rwLock.readLock().lock();
+        try {
+            MetricStore ms = metricStores.get(metric);
+            if (ms == null) {
+                return Collections.emptyList();
+            }
+            ms.lock.readLock().lock();
+            try {
+                return capture(ms, timeStart, timeEnd, filter, tier);
+            } finally {
+                ms.lock.readLock().unlock();
+            }
         } finally {
             rwLock.readLock().unlock();
         }
     }
 
+    /**
+     * Snapshot the matching series of each block overlapping the range, under the metric's read lock.
+     * The filter is planned per block (see TagFilter); when the range covers
+     * only part of a block, series without points in it are skipped by their
+     * min/max timestamps before anything is captured.
+     */
+    private List<List<SeriesSnapshot>> capture(MetricStore ms, long timeStart, long timeEnd,
+                                               TagFilter filter, long tier) {
+        List<List<SeriesSnapshot>> blocks = new ArrayList<>();
+        for (TimeBlock block : ms.blocksOverlapping(timeStart, timeEnd)) {
+            if (!block.overlaps(timeStart, timeEnd)) continue;
+            RoaringBitmap ids = block.select(filter, registry);
+            if (ids.isEmpty()) continue;
+            boolean partial = timeStart > block.start || timeEnd < block.end;
+            List<SeriesSnapshot> snapshots = new ArrayList<>(ids.cardinality());
+            for (PrimitiveIterator.OfInt it = ids.iterator(); it.hasNext(); ) {
+                Series series = registry.get(it.nextInt());
+                SeriesColumns cols = block.columns(series);
+                if (partial && (cols.maxTimestamp() < timeStart || cols.minTimestamp() >= timeEnd)) continue;
+                Rollup rollup = tier == 0 ? null
+                    : cols.rollupSlice(tier, Rollup.alignUp(timeStart, tier), Rollup.alignDown(timeEnd, tier));
+                snapshots.add(new SeriesSnapshot(series, cols, rollup));
+            }
+            if (!snapshots.isEmpty()) blocks.add(snapshots);
+        }
+        return blocks;
+    }
+
     @Override
     public boolean shutdown() {
+        try {
+            if (maintenance != null) {
+                maintenance.shutdown();
+                maintenance.awaitTermination(1, TimeUnit.MINUTES);
+            }
+            // restart from a checkpoint instead of the log
+            if (wal != null) checkpoint();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
         rwLock.writeLock().lock();
         try {
-            if (writer != null) writer.close();
+            if (wal != null) wal.close();
+            wal = null;
             return true;
         } catch (IOException e) {
             e.printStackTrace(); return false;
@@ -147,93 +676,315 @@ public class TimeSeriesStoreImpl implements TimeSeriesStore {
     }
 
     /**
-     * Evict old data from flatStore and clear tagBitmaps
+     * Write a checkpoint and delete the log segments it covers. The state is
+     * copied under the write lock right after moving the log to a new
+     * segment, so the checkpoint holds exactly the records of the older
+     * segments; writing it does not block inserts.
+     */
+    void checkpoint() throws IOException {
+        synchronized (checkpointLock) {
+            long index;
+            Checkpoint snapshot;
+            rwLock.writeLock().lock();
+            try {
+                evictOldData();
+                index = wal.rotate();
+                snapshot = Checkpoint.capture(registry, metricStores);
+            } finally {
+                rwLock.writeLock().unlock();
+            }
+            snapshot.write(segments.checkpoint(index));
+            lastCheckpoint = index;
+            wal.awaitClosedBelow(index);
+            segments.deleteBefore(index);
+        }
+    }
+
+    /**
+     * Evict old data by dropping whole time blocks older than the retention
+     * cutoff, together with their local tag bitmaps. Only the block
+     * straddling the cutoff is trimmed point by point.
      * 
      */
     private void evictOldData() {
         long cutoff = System.currentTimeMillis() - retentionTime;
-        // main flat store
-        for (Map.Entry<String, List<DataPoint>> e : flatStore.entrySet()) {
-            List<DataPoint> list = e.getValue();
-            int idx = findFirstIndex(list, cutoff);
-            if (idx > 0) list.subList(0, idx).clear();
-        }
-
-        for (String metric : tagBitmaps.keySet()) {
-            List<DataPoint> list = flatStore.get(metric);
-            ConcurrentMap<String, ConcurrentMap<String, BitSet>> mMap = tagBitmaps.get(metric);
-            mMap.values().forEach(byVal -> byVal.values().forEach(bs -> bs.clear()));
-            for (int i = 0; i < list.size(); i++) {
-                DataPoint dp = list.get(i);
-                ConcurrentMap<String, ConcurrentMap<String, BitSet>> mm = tagBitmaps.get(metric);
-                for (Map.Entry<String, String> tag : dp.getTags().entrySet()) {
-                    mm.get(tag.getKey()).get(tag.getValue()).set(i);
+        for (MetricStore ms : metricStores.values()) {
+            ms.evictBefore(cutoff);
+        }
+        // cached results may include evicted points
+        if (cache != null) cache.clear();
+    }
+
+    /**
+     * Resolve (metric, tags) to its series, registering it the first time it is seen.
+     */
+    private Series resolveSeries(String metric, Map<String, String> tags) {
+        Series series = registry.lookup(metric, tags);
+        return series != null ? series : registry.register(metric, tags);
+    }
+
+    private MetricStore metricStore(String metric) {
+        return metricStores.computeIfAbsent(metric, k -> new MetricStore());
+    }
+
+    /**
+     * Background work: merge late points, and checkpoint once enough log
+     * segments were started since the last checkpoint.
+     */
+    private void runMaintenance() {
+        mergeOutOfOrder();
+        if (wal.currentSegment() - lastCheckpoint >= options.getCheckpointSegments()) {
+            try {
+                checkpoint();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Merge buffered out-of-order points into their series columns. Runs on
+     * the maintenance thread; queries read both sources until then.
+     */
+    private void mergeOutOfOrder() {
+        rwLock.readLock().lock();
+        try {
+            for (MetricStore ms : metricStores.values()) {
+                ms.lock.writeLock().lock();
+                try {
+                    ms.mergeOutOfOrder();
+                } finally {
+                    ms.lock.writeLock().unlock();
                 }
             }
+        } finally {
+            rwLock.readLock().unlock();
         }
     }
 
     /**
-     * Index dp into flatStore and tagBitmaps under write lock
+     * Points of one metric in a batch insert, column-wise.
      */
-    private void indexInMemory(DataPoint dp) {
-        List<DataPoint> flat = flatStore.computeIfAbsent(dp.getMetric(), k -> new ArrayList<>());
-        flat.add(dp);
-        int idx = flat.size() - 1;
-        ConcurrentMap<String, ConcurrentMap<String, BitSet>> metricMap =
-            tagBitmaps.computeIfAbsent(dp.getMetric(), k -> new ConcurrentHashMap<>());
-        for (Map.Entry<String, String> tag : dp.getTags().entrySet()) {
-            ConcurrentMap<String, BitSet> byVal =
-                metricMap.computeIfAbsent(tag.getKey(), k -> new ConcurrentHashMap<>());
-            BitSet bs = byVal.computeIfAbsent(tag.getValue(), v -> new BitSet());
-            bs.set(idx);
+    private static final class Batch {
+        Series[] series = new Series[16];
+        long[] timestamps = new long[16];
+        double[] values = new double[16];
+        int size;
+
+        void add(Series s, long timestamp, double value) {
+            if (size == series.length) {
+                series = Arrays.copyOf(series, size * 2);
+                timestamps = Arrays.copyOf(timestamps, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            series[size] = s;
+            timestamps[size] = timestamp;
+            values[size++] = value;
         }
     }
 
     /**
-     * Find first index with timestamp >= time using binary search
-     * @param list The list to search
-     * @param time The timestamp to find
-     * @return The index of the first element with timestamp >= time
+     * A series and its points as captured by a query.
      */
-    private int findFirstIndex(List<DataPoint> list, long time) {
-        int lo = 0, hi = list.size();
-        while (lo < hi) {
-            int mid = (lo + hi) >>> 1;
-            if (list.get(mid).getTimestamp() < time) lo = mid + 1;
-            else hi = mid;
+    private static final class SeriesSnapshot {
+        final Series series;
+        final SeriesColumns.Snapshot points;
+        // buckets of the chosen rollup tier inside the range, or null
+        final Rollup rollup;
+        // of all captured points, in the range or not
+        final int size;
+        final long minTs;
+        final long maxTs;
+
+        SeriesSnapshot(Series series, SeriesColumns columns, Rollup rollup) {
+            this.series = series;
+            this.points = columns.snapshot();
+            this.rollup = rollup;
+            this.size = columns.size();
+            this.minTs = columns.minTimestamp();
+            this.maxTs = columns.maxTimestamp();
         }
-        return lo;
     }
 
     /**
-     * Parse a line from the log file into a DataPoint object.
-     * 
-     * @param line The line to parse
-     * @return A DataPoint object
+     * Merges the snapshots of each block by timestamp, one block after the
+     * other: blocks are disjoint in time, so per block results concatenate
+     * in order. Points with equal timestamps come in series capture order.
+     */
+    private static final class MergeCursor implements SeriesCursor {
+        private final List<List<SeriesSnapshot>> blocks;
+        private final long timeStart;
+        private final long timeEnd;
+        private int block = -1;
+        private List<SeriesSnapshot> snapshots;
+        private final PriorityQueue<MergeEntry> heap = new PriorityQueue<>();
+        private MergeEntry current;
+
+        MergeCursor(List<List<SeriesSnapshot>> blocks, long timeStart, long timeEnd) {
+            this.blocks = blocks;
+            this.timeStart = timeStart;
+            this.timeEnd = timeEnd;
+        }
+
+        @Override
+        public boolean next() {
+            if (current != null && current.cursor.next()) heap.add(current);
+            while (heap.isEmpty()) {
+                if (++block >= blocks.size()) {
+                    current = null;
+                    return false;
+                }
+                snapshots = blocks.get(block);
+                for (int s = 0; s < snapshots.size(); s++) {
+                    SeriesColumns.Cursor cursor = snapshots.get(s).points.cursor(timeStart, timeEnd);
+                    if (cursor.next()) heap.add(new MergeEntry(s, cursor));
+                }
+            }
+            current = heap.poll();
+            return true;
+        }
+
+        Series series() {
+            return snapshots.get(current.index).series;
+        }
+
+        @Override
+        public long timestamp() {
+            return current.cursor.timestamp();
+        }
+
+        @Override
+        public double value() {
+            return current.cursor.value();
+        }
+
+        @Override
+        public int seriesId() {
+            return series().id;
+        }
+
+        @Override
+        public Map<String, String> tags() {
+            return series().tags;
+        }
+    }
+
+    /**
+     * Merges [timeStart, timeEnd) of one block.
+     */
+    @SuppressWarnings("serial") // never serialized
+    private static final class ScanTask extends RecursiveTask<QueryResult.Builder> {
+        private final List<SeriesSnapshot> block;
+        private final long timeStart;
+        private final long timeEnd;
+
+        ScanTask(List<SeriesSnapshot> block, long timeStart, long timeEnd) {
+            this.block = block;
+            this.timeStart = timeStart;
+            this.timeEnd = timeEnd;
+        }
+
+        @Override
+        protected QueryResult.Builder compute() {
+            QueryResult.Builder result = new QueryResult.Builder();
+            MergeCursor cursor = new MergeCursor(Collections.singletonList(block), timeStart, timeEnd);
+            while (cursor.next()) result.add(cursor.series(), cursor.timestamp(), cursor.value());
+            return result;
+        }
+    }
+
+    /**
+     * Folds a range of snapshots, halving it while it holds more than the
+     * given number of points and merging the halves' results.
      */
-    private DataPoint parseLine(String line) {
-        String body = line.substring(line.indexOf('{')+1, line.lastIndexOf('}'));
-        String[] parts = body.split(", (?=(?:[^\\{]*\\{[^\\}]*\\})*[^\\}]*$)",4);
-        long ts = Long.parseLong(parts[0].split("=",2)[1]);
-        String metric = parts[1].split("=",2)[1].replaceAll("^'|'$", "");
-        double val = Double.parseDouble(parts[2].split("=",2)[1]);
-        String tagsBody = parts.length==4? parts[3].substring(parts[3].indexOf('{')+1, parts[3].lastIndexOf('}')):"";
-        Map<String,String> tags = new HashMap<>();
-        if(!tagsBody.isEmpty()){
-            for(String kv: tagsBody.split(", ")){
-                String[] p=kv.split("=",2); tags.put(p[0],p[1]);
+    @SuppressWarnings("serial") // never serialized
+    private static final class FoldTask<R> extends RecursiveTask<R> {
+        private final List<SeriesSnapshot> snapshots;
+        private final long share;
+        private final Supplier<R> empty;
+        private final BiConsumer<R, SeriesSnapshot> fold;
+        private final BinaryOperator<R> merge;
+
+        FoldTask(List<SeriesSnapshot> snapshots, long share, Supplier<R> empty, BiConsumer<R, SeriesSnapshot> fold,
+                 BinaryOperator<R> merge) {
+            this.snapshots = snapshots;
+            this.share = share;
+            this.empty = empty;
+            this.fold = fold;
+            this.merge = merge;
+        }
+
+        @Override
+        protected R compute() {
+            int n = snapshots.size();
+            if (n < 2 || blockPoints(snapshots) <= share) {
+                R result = empty.get();
+                for (SeriesSnapshot s : snapshots) fold.accept(result, s);
+                return result;
             }
+            FoldTask<R> left = new FoldTask<>(snapshots.subList(0, n / 2), share, empty, fold, merge);
+            left.fork();
+            R right = new FoldTask<>(snapshots.subList(n / 2, n), share, empty, fold, merge).compute();
+            return merge.apply(left.join(), right);
+        }
+    }
+
+    /**
+     * Heap entry for the k-way merge, ordered by the cursor's current timestamp.
+     */
+    private static final class MergeEntry implements Comparable<MergeEntry> {
+        final int index;
+        final SeriesColumns.Cursor cursor;
+
+        MergeEntry(int index, SeriesColumns.Cursor cursor) {
+            this.index = index;
+            this.cursor = cursor;
+        }
+
+        @Override
+        public int compareTo(MergeEntry o) {
+            int c = Long.compare(cursor.timestamp(), o.cursor.timestamp());
+            return c != 0 ? c : Integer.compare(index, o.index);
+        }
+    }
+
+    /**
+     * Puts the series and columns of a checkpoint back in place.
+     */
+    private final class Restore implements Checkpoint.Loader {
+        @Override
+        public Series onSeries(String metric, Map<String, String> tags) {
+            return resolveSeries(metric, tags);
+        }
+
+        @Override
+        public void onColumns(Series series, long blockStart, SeriesColumns columns) {
+            metricStore(series.metric).restore(series, blockStart, columns);
+        }
+    }
+
+    /**
+     * Target of the parallel log replay. Metric stores are created
+     * concurrently, while each one is only filled by a single thread.
+     */
+    private final class Recovery implements SegmentReplay.Target {
+        @Override
+        public Series resolve(String metric, Map<String, String> tags) {
+            return resolveSeries(metric, tags);
+        }
+
+        @Override
+        public void append(Series series, long timestamp, double value) {
+            metricStore(series.metric).append(series, timestamp, value);
         }
-        return new DataPoint(ts, metric, val, tags);
     }
 
     /**
-     * Get the flat store for testing purposes.
+     * Get the names of all metrics held in the store.
      * This is currently used by BenchmarkStore.java
-     * @return The flat store map
+     * @return The set of metric names
      */
-    public Map<String, List<DataPoint>> getStore() {
-        return flatStore;
+    public Set<String> getMetrics() {
+        return registry.metrics();
     }
 }
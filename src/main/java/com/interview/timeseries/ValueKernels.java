@@ -0,0 +1,49 @@
+package com.interview.timeseries;
+
+/**
+ * Folds runs of a value column into a PartialAggregate.
+ *
+ * The scalar loop is always available. A vectorized kernel (VectorKernel,
+ * built from src/vector/java on JDK 17+) replaces it when its class is on
+ * the class path and the jdk.incubator.vector module is loaded (java
+ * --add-modules jdk.incubator.vector); -Dtimeseries.vector=false keeps the
+ * scalar loop. Both give the same count, min and max; sums may differ in
+ * the last bits as the vector kernel adds lane by lane.
+ */
+final class ValueKernels {
+    // shorter runs are folded by the scalar loop
+    static final int MIN_VECTOR_RUN = 32;
+
+    interface Kernel {
+        /**
+         * Fold values[from, to) into the aggregate.
+         */
+        void fold(double[] values, int from, int to, PartialAggregate into);
+    }
+
+    static final Kernel SCALAR = ValueKernels::foldScalar;
+    static final Kernel KERNEL = load();
+
+    private ValueKernels() {
+    }
+
+    static void fold(double[] values, int from, int to, PartialAggregate into) {
+        if (to - from < MIN_VECTOR_RUN) foldScalar(values, from, to, into);
+        else KERNEL.fold(values, from, to, into);
+    }
+
+    static void foldScalar(double[] values, int from, int to, PartialAggregate into) {
+        for (int i = from; i < to; i++) into.add(values[i]);
+    }
+
+    private static Kernel load() {
+        if (!Boolean.parseBoolean(System.getProperty("timeseries.vector", "true"))) return SCALAR;
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) return SCALAR;
+        try {
+            return (Kernel) Class.forName(ValueKernels.class.getPackageName() + ".VectorKernel")
+                .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return SCALAR;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.interview.timeseries;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Decodes write-ahead log records written by WalWriter straight from a ByteBuffer.
+ */
+final class WalReader {
+
+    /**
+     * Receives decoded records in log order.
+     */
+    interface Visitor {
+        void onSeries(int id, String metric, Map<String, String> tags);
+
+        void onPoint(int id, long timestamp, double value);
+    }
+
+    private WalReader() {
+    }
+
+    /**
+     * Replay a log file through the visitor.
+     * @return The length of the valid prefix of the file; a torn or corrupt
+     *         tail after it is ignored
+     */
+    static long replay(Path path, Visitor visitor) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            // crashed before the header was complete: nothing to replay
+            if (size < WalWriter.HEADER_BYTES) return 0;
+            if (size > Integer.MAX_VALUE) throw new IOException("log file too large: " + path);
+            return decode(channel.map(FileChannel.MapMode.READ_ONLY, 0, size), visitor);
+        }
+    }
+
+    /**
+     * Decode the records in buf from its position on.
+     * @return The position after the last valid record
+     */
+    static int decode(ByteBuffer buf, Visitor visitor) throws IOException {
+        if (buf.remaining() < WalWriter.HEADER_BYTES || buf.getInt() != WalWriter.MAGIC) {
+            throw new IOException("not a write-ahead log");
+        }
+        // version 1 logs only lack POINTS records
+        byte version = buf.get();
+        if (version < 1 || version > WalWriter.VERSION) {
+            throw new IOException("unsupported write-ahead log version " + version);
+        }
+        CRC32 crc = new CRC32();
+        int valid = buf.position();
+        while (buf.remaining() >= WalWriter.RECORD_OVERHEAD) {
+            int len = buf.getInt();
+            int checksum = buf.getInt();
+            if (len <= 0 || len > buf.remaining()) break;
+            ByteBuffer payload = buf.slice();
+            payload.limit(len);
+            crc.reset();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != checksum) break;
+            byte type = payload.get();
+            if (type == WalWriter.POINT) {
+                visitor.onPoint(payload.getInt(), payload.getLong(), payload.getDouble());
+            } else if (type == WalWriter.POINTS) {
+                int id = payload.getInt();
+                int count = payload.getInt();
+                for (int i = 0; i < count; i++) visitor.onPoint(id, payload.getLong(), payload.getDouble());
+            } else if (type == WalWriter.SERIES) {
+                int id = payload.getInt();
+                String metric = readString(payload);
+                int tagCount = payload.getInt();
+                Map<String, String> tags = new HashMap<>(tagCount * 2);
+                for (int i = 0; i < tagCount; i++) {
+                    tags.put(readString(payload), readString(payload));
+                }
+                visitor.onSeries(id, metric, tags);
+            } else {
+                break;
+            }
+            buf.position(buf.position() + len);
+            valid = buf.position();
+        }
+        return valid;
+    }
+
+    private static String readString(ByteBuffer buf) {
+        byte[] bytes = new byte[buf.getInt()];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,85 @@
+package com.interview.timeseries;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * File layout of the data directory.
+ *
+ * The write-ahead log is split into numbered segments (wal-N.log). A
+ * checkpoint file checkpoint-N.ckpt holds the in-memory state as of the
+ * start of segment N, so recovery loads it and replays segments >= N only.
+ */
+final class WalSegments {
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CHECKPOINT_PREFIX = "checkpoint-";
+    private static final String CHECKPOINT_SUFFIX = ".ckpt";
+
+    private final Path dir;
+
+    WalSegments(Path dir) {
+        this.dir = dir;
+    }
+
+    Path directory() {
+        return dir;
+    }
+
+    Path segment(long index) {
+        return dir.resolve(String.format("%s%010d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+    }
+
+    Path checkpoint(long index) {
+        return dir.resolve(String.format("%s%010d%s", CHECKPOINT_PREFIX, index, CHECKPOINT_SUFFIX));
+    }
+
+    /**
+     * Indexes of the existing segments, ascending.
+     */
+    List<Long> segmentIndexes() throws IOException {
+        return list(SEGMENT_PREFIX, SEGMENT_SUFFIX);
+    }
+
+    /**
+     * Index of the newest checkpoint, or -1 if there is none.
+     */
+    long latestCheckpoint() throws IOException {
+        List<Long> checkpoints = list(CHECKPOINT_PREFIX, CHECKPOINT_SUFFIX);
+        return checkpoints.isEmpty() ? -1 : checkpoints.get(checkpoints.size() - 1);
+    }
+
+    /**
+     * Delete segments and checkpoints made obsolete by checkpoint `index`.
+     */
+    void deleteBefore(long index) throws IOException {
+        for (long s : list(SEGMENT_PREFIX, SEGMENT_SUFFIX)) {
+            if (s < index) Files.deleteIfExists(segment(s));
+        }
+        for (long c : list(CHECKPOINT_PREFIX, CHECKPOINT_SUFFIX)) {
+            if (c < index) Files.deleteIfExists(checkpoint(c));
+        }
+    }
+
+    private List<Long> list(String prefix, String suffix) throws IOException {
+        List<Long> indexes = new ArrayList<>();
+        if (!Files.isDirectory(dir)) return indexes;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, prefix + "*" + suffix)) {
+            for (Path f : files) {
+                String name = f.getFileName().toString();
+                try {
+                    indexes.add(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())));
+                } catch (NumberFormatException e) {
+                    // not one of ours
+                }
+            }
+        }
+        Collections.sort(indexes);
+        return indexes;
+    }
+}
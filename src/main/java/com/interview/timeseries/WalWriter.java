@@ -0,0 +1,216 @@
+package com.interview.timeseries;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Appends binary write-ahead log records.
+ *
+ * File layout: a header (magic int, version byte) followed by records of
+ * [int payload length][int CRC32 of payload][payload]. A payload starts
+ * with its type byte:
+ *   SERIES: int series ID, metric, int tag count, (key, value) pairs
+ *   POINT:  int series ID, long timestamp, double value
+ *   POINTS: int series ID, int count, count (long timestamp, double value) pairs
+ * Strings are an int byte length followed by UTF-8 bytes. A series is
+ * defined once per log file, before its first point.
+ *
+ * Records are encoded into a buffer by append(); drain() hands the filled
+ * buffer to whoever writes it, so encoding and file IO can overlap. The
+ * caller serializes append/drain/recycle.
+ */
+final class WalWriter implements Closeable {
+    static final int MAGIC = 0x5453574C; // "TSWL"
+    static final byte VERSION = 2;
+    static final int HEADER_BYTES = 5;
+    static final int RECORD_OVERHEAD = 8;
+    static final byte SERIES = 1;
+    static final byte POINT = 2;
+    static final byte POINTS = 3;
+    private static final int POINT_PAYLOAD = 1 + 4 + 8 + 8;
+    // points per POINTS record, bounding the record size
+    private static final int MAX_GROUP = 4096;
+
+    private final FileChannel channel;
+    // bytes handed to the channel so far; written by the flusher, read by appenders
+    private volatile long written;
+    private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+    private ByteBuffer spare;
+    private final CRC32 crc = new CRC32();
+    // series already defined in this file
+    private final RoaringBitmap defined = new RoaringBitmap();
+
+    private WalWriter(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Open a log for appending, writing the header if the file is new.
+     */
+    static WalWriter open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path,
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+        WalWriter writer = new WalWriter(channel);
+        writer.written = channel.size();
+        if (channel.size() == 0) {
+            writer.buffer.putInt(MAGIC).put(VERSION);
+            writer.flush();
+        }
+        return writer;
+    }
+
+    /**
+     * Buffer a point record, preceded by the series definition on first use.
+     */
+    void append(Series series, long timestamp, double value) {
+        if (!defined.contains(series.id)) {
+            writeSeries(series);
+            defined.add(series.id);
+        }
+        int p = begin(POINT_PAYLOAD);
+        buffer.put(POINT).putInt(series.id).putLong(timestamp).putDouble(value);
+        end(p);
+    }
+
+    /**
+     * Buffer points [from, to) of one series as grouped records, one
+     * length/checksum header per up to MAX_GROUP points.
+     */
+    void append(Series series, long[] timestamps, double[] values, int from, int to) {
+        if (to - from == 1) {
+            append(series, timestamps[from], values[from]);
+            return;
+        }
+        if (!defined.contains(series.id)) {
+            writeSeries(series);
+            defined.add(series.id);
+        }
+        for (int i = from; i < to; ) {
+            int n = Math.min(MAX_GROUP, to - i);
+            int p = begin(1 + 4 + 4 + n * 16);
+            buffer.put(POINTS).putInt(series.id).putInt(n);
+            for (int end = i + n; i < end; i++) buffer.putLong(timestamps[i]).putDouble(values[i]);
+            end(p);
+        }
+    }
+
+    private void writeSeries(Series series) {
+        byte[] metric = series.metric.getBytes(StandardCharsets.UTF_8);
+        byte[][] tags = new byte[series.tags.size() * 2][];
+        int len = 1 + 4 + 4 + metric.length + 4;
+        int i = 0;
+        for (Map.Entry<String, String> tag : series.tags.entrySet()) {
+            tags[i] = tag.getKey().getBytes(StandardCharsets.UTF_8);
+            tags[i + 1] = tag.getValue().getBytes(StandardCharsets.UTF_8);
+            len += 8 + tags[i].length + tags[i + 1].length;
+            i += 2;
+        }
+        int p = begin(len);
+        buffer.put(SERIES).putInt(series.id);
+        buffer.putInt(metric.length).put(metric);
+        buffer.putInt(series.tags.size());
+        for (byte[] s : tags) buffer.putInt(s.length).put(s);
+        end(p);
+    }
+
+    /**
+     * Reserve room for a record header and payload, returning the record start.
+     */
+    private int begin(int payloadLength) {
+        if (buffer.remaining() < RECORD_OVERHEAD + payloadLength) {
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2,
+                buffer.position() + RECORD_OVERHEAD + payloadLength));
+            buffer.flip();
+            bigger.put(buffer);
+            buffer = bigger;
+        }
+        int p = buffer.position();
+        buffer.position(p + RECORD_OVERHEAD);
+        return p;
+    }
+
+    private void end(int p) {
+        int len = buffer.position() - p - RECORD_OVERHEAD;
+        crc.reset();
+        crc.update(buffer.array(), p + RECORD_OVERHEAD, len);
+        buffer.putInt(p, len);
+        buffer.putInt(p + 4, (int) crc.getValue());
+    }
+
+    boolean hasBuffered() {
+        return buffer.position() > 0;
+    }
+
+    /**
+     * Bytes encoded but not yet drained.
+     */
+    int buffered() {
+        return buffer.position();
+    }
+
+    /**
+     * Size of the log file once everything buffered is written.
+     */
+    long size() {
+        return written + buffer.position();
+    }
+
+    /**
+     * Take the encoded records for writing and continue in a spare buffer.
+     */
+    ByteBuffer drain() {
+        ByteBuffer full = buffer;
+        full.flip();
+        buffer = spare != null ? spare : ByteBuffer.allocate(full.capacity());
+        spare = null;
+        return full;
+    }
+
+    /**
+     * Return a drained buffer once written, to be reused by the next drain.
+     */
+    void recycle(ByteBuffer written) {
+        written.clear();
+        spare = written;
+    }
+
+    /**
+     * Write drained records to the file (OS page cache).
+     */
+    void write(ByteBuffer batch) throws IOException {
+        while (batch.hasRemaining()) written += channel.write(batch);
+    }
+
+    /**
+     * Force written records to the storage device.
+     */
+    void sync() throws IOException {
+        channel.force(false);
+    }
+
+    /**
+     * Write all buffered records to the file (OS page cache).
+     */
+    void flush() throws IOException {
+        ByteBuffer batch = drain();
+        write(batch);
+        recycle(batch);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+}
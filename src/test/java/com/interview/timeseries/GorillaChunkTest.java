@@ -0,0 +1,219 @@
+package com.interview.timeseries;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Tests for the Gorilla chunk encoding and sealed series columns.
+ */
+public class GorillaChunkTest {
+
+    private static void assertRoundTrip(long[] ts, double[] vals) {
+        GorillaChunk chunk = GorillaChunk.encode(ts, vals, 0, ts.length);
+        assertEquals(ts.length, chunk.count);
+        assertEquals(ts[0], chunk.minTs);
+        assertEquals(ts[ts.length - 1], chunk.maxTs);
+        GorillaChunk.Decoder dec = chunk.decoder();
+        for (int i = 0; i < ts.length; i++) {
+            assertTrue(dec.next());
+            assertEquals(ts[i], dec.timestamp());
+            assertEquals(Double.doubleToRawLongBits(vals[i]), Double.doubleToRawLongBits(dec.value()));
+        }
+        assertFalse(dec.next());
+    }
+
+    @Test
+    public void testRegularSeriesCompressesWell() {
+        int n = 1024;
+        long[] ts = new long[n];
+        double[] vals = new double[n];
+        for (int i = 0; i < n; i++) {
+            ts[i] = 1_700_000_000_000L + i * 10_000L;
+            vals[i] = 42.0 + (i % 4);
+        }
+        assertRoundTrip(ts, vals);
+        // 16 raw bytes per point uncompressed
+        assertTrue(GorillaChunk.encode(ts, vals, 0, n).sizeInBytes() < n * 4L);
+    }
+
+    @Test
+    public void testIrregularTimestampsAndValues() {
+        Random rnd = new Random(7);
+        int n = 2000;
+        long[] ts = new long[n];
+        double[] vals = new double[n];
+        long t = 1_000L;
+        for (int i = 0; i < n; i++) {
+            // mix of tiny, medium, huge gaps and repeated timestamps
+            switch (i % 5) {
+                case 0: t += 0; break;
+                case 1: t += rnd.nextInt(100); break;
+                case 2: t += rnd.nextInt(5000); break;
+                case 3: t += 1L << 40; break;
+                default: t += rnd.nextInt(Integer.MAX_VALUE);
+            }
+            ts[i] = t;
+            vals[i] = i % 7 == 0 ? Double.NaN : rnd.nextGaussian() * 1e6;
+        }
+        vals[3] = -0.0;
+        vals[4] = Double.NEGATIVE_INFINITY;
+        assertRoundTrip(ts, vals);
+    }
+
+    @Test
+    public void testSingleValue() {
+        assertRoundTrip(new long[] {Long.MIN_VALUE + 1}, new double[] {Double.MAX_VALUE});
+    }
+
+    @Test
+    public void testColumnsSealAndEvictAcrossChunks() {
+        SeriesColumns cols = new SeriesColumns();
+        int n = SeriesColumns.HEAD_CAPACITY * 3 + 10;
+        for (int i = 0; i < n; i++) {
+            cols.add(i * 10L, i);
+        }
+        assertEquals(3, cols.sealedChunkCount());
+        assertEquals(n, cols.size());
+
+        // cut in the middle of the second sealed chunk
+        long cutoff = (SeriesColumns.HEAD_CAPACITY + 5) * 10L;
+        cols.evictBefore(cutoff);
+        assertEquals(n - SeriesColumns.HEAD_CAPACITY - 5, cols.size());
+
+        SeriesColumns.Cursor cursor = cols.cursor(0, Long.MAX_VALUE);
+        int expected = SeriesColumns.HEAD_CAPACITY + 5;
+        while (cursor.next()) {
+            assertEquals(expected * 10L, cursor.timestamp());
+            assertEquals(expected, cursor.value(), 0.0);
+            expected++;
+        }
+        assertEquals(n, expected);
+    }
+
+    @Test
+    public void testEvictionTrimsRollupsToRemainingPoints() {
+        SeriesColumns cols = new SeriesColumns();
+        for (int i = 0; i < 7200; i++) cols.add(i * 1000L, i % 100);
+        // 30m 15.5s: inside a minute bucket and an hour bucket
+        long cutoff = 30 * Rollup.MINUTE + 15_500;
+        for (int pass = 0; pass < 2; pass++) {
+            // the second pass removes nothing and leaves the rollups alone
+            cols.evictBefore(cutoff);
+            for (long tier : Rollup.TIERS) {
+                Rollup r = cols.rollupSlice(tier, Long.MIN_VALUE, Long.MAX_VALUE);
+                PartialAggregate[] fromRollup = {new PartialAggregate()};
+                r.aggregate(0, Long.MAX_VALUE, fromRollup);
+                PartialAggregate fromPoints = new PartialAggregate();
+                SeriesColumns.Cursor cursor = cols.cursor(Long.MIN_VALUE, Long.MAX_VALUE);
+                while (cursor.next()) fromPoints.add(cursor.value());
+                assertEquals(fromPoints.count, fromRollup[0].count);
+                assertEquals(fromPoints.sum, fromRollup[0].sum, 0.0);
+                // the straddling bucket is kept, everything before it dropped
+                long straddling = Rollup.alignDown(cutoff, tier);
+                assertEquals(0, r.slice(Long.MIN_VALUE, straddling).size());
+                assertEquals(1, r.slice(straddling, straddling + 1).size());
+            }
+        }
+        assertEquals(7200 - 1816, cols.size());
+    }
+
+    @Test
+    public void testHeadSealedWhenOutsideWriteWindow() {
+        SeriesColumns cols = new SeriesColumns();
+        cols.add(0L, 1.0);
+        cols.add(1L, 2.0);
+        cols.add(SeriesColumns.ACTIVE_WINDOW_MILLIS, 3.0);
+        assertEquals(1, cols.sealedChunkCount());
+
+        SeriesColumns.Cursor cursor = cols.cursor(1L, SeriesColumns.ACTIVE_WINDOW_MILLIS + 1);
+        assertTrue(cursor.next());
+        assertEquals(1L, cursor.timestamp());
+        assertTrue(cursor.next());
+        assertEquals(3.0, cursor.value(), 0.0);
+        assertFalse(cursor.next());
+    }
+
+    private static void assertCursor(SeriesColumns cols, long from, long to, long[] expected) {
+        SeriesColumns.Cursor cursor = cols.cursor(from, to);
+        int n = 0;
+        while (cursor.next()) {
+            while (expected[n] < from) n++;
+            assertEquals(expected[n], cursor.timestamp());
+            assertEquals(expected[n] * 0.5, cursor.value(), 0.0);
+            n++;
+        }
+        assertTrue(n == expected.length || expected[n] >= to);
+    }
+
+    @Test
+    public void testOutOfOrderPointsAreBufferedAndMerged() {
+        Random rnd = new Random(3);
+        SeriesColumns cols = new SeriesColumns();
+        int n = 5000;
+        long[] sorted = new long[n];
+        for (int i = 0; i < n; i++) sorted[i] = i * 7L;
+        // mostly in order, every 10th point arrives up to 2000 points late
+        long[] arrival = sorted.clone();
+        for (int i = 0; i < n; i += 10) {
+            int j = Math.min(n - 1, i + rnd.nextInt(2000));
+            long t = arrival[i];
+            System.arraycopy(arrival, i + 1, arrival, i, j - i);
+            arrival[j] = t;
+        }
+        boolean buffered = false;
+        for (int i = 0; i < n; i++) {
+            buffered |= cols.add(arrival[i], arrival[i] * 0.5);
+            if (cols.outOfOrderSize() > 0 && i % 1000 == 0) {
+                // queries see both sources before the merge
+                assertCursor(cols, 0, Long.MAX_VALUE, Arrays.copyOf(sortedPrefix(arrival, i + 1), i + 1));
+            }
+        }
+        assertTrue(buffered);
+        assertEquals(n, cols.size());
+        assertCursor(cols, 0, Long.MAX_VALUE, sorted);
+        assertCursor(cols, 700, 21_000, sorted);
+        cols.mergeOutOfOrder();
+        assertEquals(0, cols.outOfOrderSize());
+        assertEquals(n, cols.size());
+        assertCursor(cols, 0, Long.MAX_VALUE, sorted);
+        assertCursor(cols, 3, 30_001, sorted);
+    }
+
+    private static long[] sortedPrefix(long[] ts, int n) {
+        long[] out = Arrays.copyOf(ts, n);
+        Arrays.sort(out);
+        return out;
+    }
+
+    @Test
+    public void testSnapshotUnaffectedByLaterWrites() {
+        SeriesColumns cols = new SeriesColumns();
+        for (int i = 0; i < 100; i++) cols.add(i * 2L, i);
+        cols.add(51L, -1);
+        SeriesColumns.Snapshot snapshot = cols.snapshot();
+        long[] expected = new long[101];
+        for (int i = 0; i < 100; i++) expected[i] = i * 2L;
+        expected[100] = 51L;
+        Arrays.sort(expected);
+
+        // seal, evict, merge and keep appending: none of it may show through
+        for (int i = 100; i < SeriesColumns.HEAD_CAPACITY + 300; i++) cols.add(i * 2L, i);
+        cols.add(7L, -2);
+        cols.mergeOutOfOrder();
+        cols.evictBefore(60L);
+        cols.seal();
+
+        SeriesColumns.Cursor cursor = snapshot.cursor(0, Long.MAX_VALUE);
+        for (long t : expected) {
+            assertTrue(cursor.next());
+            assertEquals(t, cursor.timestamp());
+            assertEquals(t == 51L ? -1.0 : t / 2.0, cursor.value(), 0.0);
+        }
+        assertFalse(cursor.next());
+    }
+}
@@ -0,0 +1,103 @@
+package com.interview.timeseries;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Tests for the compressed posting bitmap, checked against java.util.BitSet.
+ */
+public class RoaringBitmapTest {
+
+    private static int[] toArray(BitSet bs) {
+        return bs.stream().toArray();
+    }
+
+    /**
+     * Random mix of sparse values, a dense block and a long run across several containers.
+     */
+    private static BitSet randomSet(Random rnd) {
+        BitSet bs = new BitSet();
+        for (int i = 0; i < 3000; i++) bs.set(rnd.nextInt(1 << 22));
+        int dense = rnd.nextInt(1 << 20);
+        for (int i = 0; i < 20000; i++) bs.set(dense + rnd.nextInt(40000));
+        int run = rnd.nextInt(1 << 21);
+        bs.set(run, run + rnd.nextInt(150000));
+        return bs;
+    }
+
+    private static RoaringBitmap fromBitSet(BitSet bs, boolean optimize) {
+        RoaringBitmap bm = new RoaringBitmap();
+        bs.stream().forEach(bm::add);
+        if (optimize) bm.runOptimize();
+        return bm;
+    }
+
+    @Test
+    public void testSetOperationsMatchBitSet() {
+        Random rnd = new Random(42);
+        for (int round = 0; round < 6; round++) {
+            BitSet a = randomSet(rnd);
+            BitSet b = randomSet(rnd);
+            RoaringBitmap ra = fromBitSet(a, round % 2 == 0);
+            RoaringBitmap rb = fromBitSet(b, round % 3 == 0);
+            assertEquals(a.cardinality(), ra.cardinality());
+            assertArrayEquals(toArray(a), ra.toArray());
+
+            BitSet and = (BitSet) a.clone();
+            and.and(b);
+            assertArrayEquals(toArray(and), RoaringBitmap.and(ra, rb).toArray());
+
+            BitSet or = (BitSet) a.clone();
+            or.or(b);
+            assertArrayEquals(toArray(or), RoaringBitmap.or(ra, rb).toArray());
+
+            BitSet andNot = (BitSet) a.clone();
+            andNot.andNot(b);
+            assertArrayEquals(toArray(andNot), RoaringBitmap.andNot(ra, rb).toArray());
+
+            // operations must not modify their inputs
+            assertArrayEquals(toArray(a), ra.toArray());
+            assertArrayEquals(toArray(b), rb.toArray());
+        }
+    }
+
+    @Test
+    public void testSparseHighValuesStaySmall() {
+        RoaringBitmap bm = new RoaringBitmap();
+        BitSet bs = new BitSet();
+        for (int i = 0; i < 100; i++) {
+            bm.add(i * 1_000_000);
+            bs.set(i * 1_000_000);
+        }
+        assertEquals(100, bm.cardinality());
+        assertTrue(bm.contains(42_000_000));
+        assertFalse(bm.contains(42_000_001));
+        assertTrue(bm.sizeInBytes() * 100 < bs.size() / 8);
+    }
+
+    @Test
+    public void testRunOptimizeAndMutations() {
+        RoaringBitmap bm = new RoaringBitmap();
+        for (int i = 10; i < 100_000; i++) bm.add(i);
+        long before = bm.sizeInBytes();
+        bm.runOptimize();
+        assertTrue(bm.sizeInBytes() < before / 100);
+        assertEquals(99_990, bm.cardinality());
+
+        // appends extend the last run, other edits fall back to plain containers
+        bm.add(100_000);
+        bm.add(5);
+        bm.remove(50_000);
+        assertEquals(99_991, bm.cardinality());
+        assertTrue(bm.contains(5));
+        assertTrue(bm.contains(100_000));
+        assertFalse(bm.contains(50_000));
+        assertFalse(bm.contains(9));
+    }
+}
@@ -0,0 +1,55 @@
+package com.interview.timeseries;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import org.junit.Test;
+
+/**
+ * Tests for the series ID dictionary and interned tag sets.
+ */
+public class SeriesRegistryTest {
+
+    @Test
+    public void testDenseIdsAndCanonicalTags() {
+        SeriesRegistry registry = new SeriesRegistry();
+        Map<String, String> tags = new HashMap<>();
+        tags.put("host", "server1");
+        tags.put("datacenter", "us-west");
+
+        Series a = registry.register("cpu.usage", tags);
+        Series b = registry.register("cpu.usage", Map.of("host", "server2"));
+        Series c = registry.register("mem.usage", tags);
+        assertEquals(0, a.id);
+        assertEquals(1, b.id);
+        assertEquals(2, c.id);
+        assertEquals(3, registry.size());
+        assertSame(b, registry.get(1));
+
+        // any Map implementation with the same entries resolves to the same series
+        Map<String, String> reordered = new TreeMap<>(tags);
+        assertSame(a, registry.lookup("cpu.usage", reordered));
+        assertSame(a, registry.register("cpu.usage", reordered));
+        assertEquals(3, registry.size());
+        assertNull(registry.lookup("cpu.usage", Map.of("host", "server3")));
+
+        // canonical tags are sorted by key and equal to the input map
+        assertEquals("datacenter", a.tags.keyAt(0));
+        assertEquals(tags, a.tags);
+        assertEquals(tags.hashCode(), a.tags.hashCode());
+        assertEquals(List.of(a, b), registry.seriesOf("cpu.usage"));
+    }
+
+    @Test
+    public void testEmptyTagsShareOneSeries() {
+        SeriesRegistry registry = new SeriesRegistry();
+        Series a = registry.register("m", null);
+        assertSame(a, registry.register("m", new HashMap<>()));
+        assertSame(TagSet.EMPTY, a.tags);
+    }
+}
@@ -0,0 +1,157 @@
+package com.interview.timeseries;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the hash-sharded store.
+ */
+public class ShardedTimeSeriesStoreTest {
+    private static final Path DATA_DIR = Paths.get("sharded_store");
+    private static final int SHARDS = 4;
+
+    private ShardedTimeSeriesStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        deleteRecursively(DATA_DIR);
+        store = new ShardedTimeSeriesStore(SHARDS, new StoreOptions().setDataDirectory(DATA_DIR));
+        assertTrue(store.initialize());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        assertTrue(store.shutdown());
+        deleteRecursively(DATA_DIR);
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        if (!Files.exists(dir)) return;
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path f : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(f);
+            }
+        }
+    }
+
+    private static void assertSorted(List<DataPoint> points) {
+        for (int i = 1; i < points.size(); i++) {
+            assertTrue(points.get(i - 1).getTimestamp() <= points.get(i).getTimestamp());
+        }
+    }
+
+    @Test
+    public void testSeriesSpreadAcrossShardsAndMergedOnQuery() {
+        long t0 = System.currentTimeMillis();
+        int hosts = 32;
+        boolean[] used = new boolean[SHARDS];
+        for (int h = 0; h < hosts; h++) {
+            Map<String, String> tags = Map.of("host", "h" + h, "dc", h % 2 == 0 ? "east" : "west");
+            used[store.shardOf("cpu", tags)] = true;
+            for (int i = 0; i < 50; i++) {
+                assertTrue(store.insert(t0 + i * hosts + h, "cpu", h, tags));
+            }
+        }
+        for (boolean u : used) assertTrue(u);
+
+        List<DataPoint> all = store.query("cpu", t0, t0 + 50 * hosts, null);
+        assertEquals(50 * hosts, all.size());
+        for (int i = 0; i < all.size(); i++) assertEquals(t0 + i, all.get(i).getTimestamp());
+
+        List<DataPoint> east = store.query("cpu", t0, t0 + 50 * hosts, Map.of("dc", "east"));
+        assertEquals(50 * hosts / 2, east.size());
+        assertSorted(east);
+        assertEquals(50, store.query("cpu", t0, t0 + 50 * hosts, Map.of("host", "h7")).size());
+        assertTrue(store.query("mem", t0, t0 + 50 * hosts, null).isEmpty());
+
+        SeriesCursor cursor = store.cursor("cpu", t0, t0 + 50 * hosts, null);
+        Set<Integer> ids = new HashSet<>();
+        for (int i = 0; i < all.size(); i++) {
+            assertTrue(cursor.next());
+            assertEquals(t0 + i, cursor.timestamp());
+            assertEquals(all.get(i).getTags(), cursor.tags());
+            ids.add(cursor.seriesId());
+        }
+        assertFalse(cursor.next());
+        // IDs distinct across shards
+        assertEquals(hosts, ids.size());
+
+        // host h contributes the value h 50 times
+        assertEquals(50 * hosts, store.aggregate("cpu", t0, t0 + 50 * hosts, null, Aggregation.COUNT), 0.0);
+        assertEquals(50.0 * hosts * (hosts - 1) / 2, store.aggregate("cpu", t0, t0 + 50 * hosts, null, Aggregation.SUM), 0.0);
+        assertEquals(hosts - 1, store.aggregate("cpu", t0, t0 + 50 * hosts, null, Aggregation.MAX), 0.0);
+        assertEquals(1, store.aggregate("cpu", t0, t0 + 50 * hosts, Map.of("dc", "west"), Aggregation.MIN), 0.0);
+        // one bucket per round over all hosts
+        DownsampledSeries rounds = store.downsample("cpu", t0, t0 + 50 * hosts, null, hosts, Aggregation.AVG);
+        assertEquals(50, rounds.size());
+        for (int i = 0; i < 50; i++) assertEquals((hosts - 1) / 2.0, rounds.getValue(i), 0.0);
+        // each dc's hosts live on several shards
+        Map<String, Double> perDc = store.aggregateBy("cpu", t0, t0 + 50 * hosts, null, "dc", Aggregation.COUNT);
+        assertEquals(Map.of("east", 50.0 * hosts / 2, "west", 50.0 * hosts / 2), perDc);
+    }
+
+    @Test
+    public void testGroupByOmitsGroupsWithoutPointsInRange() {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 8; i++) {
+            Map<String, String> tags = Map.of("host", "h" + i, "region", i % 2 == 0 ? "eu" : "us");
+            if (i % 2 == 0) {
+                // eu hosts have points on both sides of the range, but none inside it
+                store.insert(now - 10_000, "gb", i, tags);
+                store.insert(now + 10_000, "gb", i, tags);
+            } else {
+                store.insert(now, "gb", i, tags);
+            }
+        }
+        assertEquals(Map.of("us", 4.0), store.aggregateBy("gb", now, now + 1, null, "region", Aggregation.AVG));
+        assertEquals(List.of("us"), new ArrayList<>(
+            store.downsampleBy("gb", now, now + 1, null, "region", 1, Aggregation.COUNT).keySet()));
+    }
+
+    @Test
+    public void testConcurrentInsertsAndRestart() throws Exception {
+        long t0 = System.currentTimeMillis();
+        int threads = 8, perThread = 300;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            results.add(pool.submit(() -> {
+                boolean ok = true;
+                for (int i = 0; i < perThread; i++) {
+                    ok &= store.insert(t0 + i, "req", i, Map.of("worker", "w" + id));
+                }
+                return ok;
+            }));
+        }
+        for (Future<Boolean> r : results) assertTrue(r.get());
+        pool.shutdown();
+        assertTrue(store.shutdown());
+
+        store = new ShardedTimeSeriesStore(SHARDS, new StoreOptions().setDataDirectory(DATA_DIR));
+        assertTrue(store.initialize());
+        List<DataPoint> all = store.query("req", t0, t0 + perThread, null);
+        assertEquals(threads * perThread, all.size());
+        assertSorted(all);
+        assertEquals(perThread, store.query("req", t0, t0 + perThread, Map.of("worker", "w5")).size());
+    }
+}
@@ -1,16 +1,32 @@
 package com.interview.timeseries;
 
-import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import org.junit.After;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -20,25 +36,52 @@ import org.junit.Test;
 public class TimeSeriesStoreTest {
     
     private TimeSeriesStore store;
-    private static final File LOG_FILE = new File("data_store.log");
+    private static final Path DATA_DIR = Paths.get("data_store");
+    private static final Path CRASH_COPY = Paths.get("data_store_copy");
     
     @Before
-    public void setUp() {
-        // Delete any existing log so we start fresh
-        if (LOG_FILE.exists()) {
-            LOG_FILE.delete();
-        }
+    public void setUp() throws IOException {
+        // Delete any existing data so we start fresh
+        deleteRecursively(DATA_DIR);
+        deleteRecursively(CRASH_COPY);
         
         store = new TimeSeriesStoreImpl();
         assertTrue("Store should initialize", store.initialize());
     }
     
     @After
-    public void tearDown() {
+    public void tearDown() throws IOException {
         assertTrue("Store should shutdown", store.shutdown());
         // Clean up again
-        if (LOG_FILE.exists()) {
-            LOG_FILE.delete();
+        deleteRecursively(DATA_DIR);
+        deleteRecursively(CRASH_COPY);
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        if (!Files.exists(dir)) return;
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path f : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(f);
+            }
+        }
+    }
+
+    /**
+     * Copy the data directory of the running store, as a crash would leave it.
+     * Only records acknowledged as written (SYNC_INTERVAL or SYNC_EACH_BATCH)
+     * are guaranteed to be in the copy; OS_BUFFERED acknowledges on queueing.
+     */
+    private static void copyDataDir() throws IOException {
+        Files.createDirectories(CRASH_COPY);
+        try (Stream<Path> files = Files.list(DATA_DIR)) {
+            for (Path f : (Iterable<Path>) files::iterator) Files.copy(f, CRASH_COPY.resolve(f.getFileName()));
+        }
+    }
+
+    private static Path newestSegment(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(f -> f.getFileName().toString().endsWith(".log"))
+                .max(Comparator.naturalOrder()).get();
         }
     }
     
@@ -176,6 +219,29 @@ public class TimeSeriesStoreTest {
         assertEquals("v", dp.getTags().get("k"));
     }
 
+    @Test
+    public void testNullTagValuesAreRejected() {
+        long now = System.currentTimeMillis();
+        Map<String, String> tags = new HashMap<>();
+        tags.put("host", null);
+        try {
+            store.insert(now, "nulls", 1.0, tags);
+            fail("null tag values are rejected");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+        // a batch holding one is rejected before any of its points is stored
+        List<DataPoint> batch = List.of(new DataPoint(now, "nulls", 1.0, Map.of("host", "a")),
+            new DataPoint(now + 1, "nulls", 2.0, tags));
+        try {
+            store.insertBatch(batch);
+            fail("null tag values are rejected");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+        assertEquals(0, store.query("nulls", now, now + 10, null).size());
+    }
+
     @Test
     public void testHighCardinalityTagFilter() {
         long base = 1000L;
@@ -189,5 +255,821 @@ public class TimeSeriesStoreTest {
         res.forEach(dp -> assertEquals("user5", dp.getTags().get("uid")));
     }
 
-    
+    @Test
+    public void testUnfilteredQueryMergesSeriesByTimestamp() {
+        long t0 = 5_000L;
+        // interleave two series of the same metric, spanning several storage chunks
+        for (int i = 0; i < 3000; i++) {
+            store.insert(t0 + 2 * i, "merged", i, Map.of("host", "a"));
+            store.insert(t0 + 2 * i + 1, "merged", -i, Map.of("host", "b"));
+        }
+        List<DataPoint> res = store.query("merged", t0 + 100, t0 + 5100, null);
+        assertEquals(5000, res.size());
+        for (int i = 0; i < res.size(); i++) {
+            assertEquals(t0 + 100 + i, res.get(i).getTimestamp());
+        }
+        assertEquals("a", res.get(0).getTags().get("host"));
+        assertEquals("b", res.get(1).getTags().get("host"));
+    }
+
+    @Test
+    public void testQueryAcrossTimeBlocks() {
+        long t0 = TimeBlock.BLOCK_MILLIS * 100;
+        long step = TimeBlock.BLOCK_MILLIS / 4;
+        // 5 blocks, two series each, second series only from the third block on
+        for (int i = 0; i < 20; i++) {
+            store.insert(t0 + i * step, "blocks", i, Map.of("dc", "a"));
+            if (i >= 8) store.insert(t0 + i * step + 1, "blocks", -i, Map.of("dc", "b"));
+        }
+        List<DataPoint> all = store.query("blocks", t0 + step, t0 + 19 * step, null);
+        assertEquals(18 + 11, all.size());
+        for (int i = 1; i < all.size(); i++) {
+            assertTrue(all.get(i - 1).getTimestamp() <= all.get(i).getTimestamp());
+        }
+        List<DataPoint> b = store.query("blocks", t0, t0 + 20 * step, Map.of("dc", "b"));
+        assertEquals(12, b.size());
+        assertEquals(-8.0, b.get(0).getValue(), 0.0);
+        assertEquals(0, store.query("blocks", t0 - step, t0, null).size());
+    }
+
+    @Test
+    public void testFullRangeQueryReturnsWholeHistory() {
+        long t0 = System.currentTimeMillis() - TimeBlock.BLOCK_MILLIS * 3;
+        for (int i = 0; i < 12; i++) {
+            store.insert(t0 + i * (TimeBlock.BLOCK_MILLIS / 4), "whole", i, Map.of("host", "h" + (i % 2)));
+        }
+        assertEquals(12, store.query("whole", Long.MIN_VALUE, Long.MAX_VALUE, null).size());
+        assertEquals(6, store.query("whole", Long.MIN_VALUE, Long.MAX_VALUE, Map.of("host", "h1")).size());
+        assertEquals(12.0, store.aggregate("whole", Long.MIN_VALUE, Long.MAX_VALUE, null, Aggregation.COUNT), 0.0);
+        assertEquals(66.0, store.aggregate("whole", Long.MIN_VALUE, Long.MAX_VALUE, null, Aggregation.SUM), 0.0);
+        assertEquals(2, store.latest("whole", null).size());
+    }
+
+    @Test
+    public void testDownsampleOverFullRange() {
+        long t0 = System.currentTimeMillis();
+        for (int i = 0; i < 12; i++) store.insert(t0 + i * 1000L, "wide", i, Map.of("host", "h" + (i % 2)));
+        // 2^64 - 1 ms in buckets of 2^62 - 1: four full ones and a few ms left over
+        long step = Long.MAX_VALUE / 2;
+        DownsampledSeries ds = store.downsample("wide", Long.MIN_VALUE, Long.MAX_VALUE, null, step,
+            Aggregation.COUNT);
+        assertEquals(5, ds.size());
+        int bucket = (int) Long.divideUnsigned(t0 - Long.MIN_VALUE, step);
+        for (int i = 0; i < ds.size(); i++) {
+            assertEquals(Long.MIN_VALUE + i * step, ds.getTimestamp(i));
+            assertEquals(i == bucket ? 12 : 0, ds.getValue(i), 0.0);
+        }
+        assertEquals(6, store.downsampleBy("wide", Long.MIN_VALUE, Long.MAX_VALUE, null, "host", step,
+            Aggregation.COUNT).get("h1").getValue(bucket), 0.0);
+        try {
+            store.downsample("wide", Long.MIN_VALUE, Long.MAX_VALUE, null, 1000, Aggregation.COUNT);
+            fail("more buckets than fit an array");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testRetentionDropsOldBlocksOnRestart() {
+        long now = System.currentTimeMillis();
+        long old = now - 30L * 60 * 60 * 1000;
+        store.insert(old, "retained", 1.0, Map.of("k", "v"));
+        store.insert(now, "retained", 2.0, Map.of("k", "v"));
+        store.shutdown();
+
+        store = new TimeSeriesStoreImpl();
+        assertTrue(store.initialize());
+        assertEquals(0, store.query("retained", old, old + 1, null).size());
+        List<DataPoint> res = store.query("retained", old, now + 1, Map.of("k", "v"));
+        assertEquals(1, res.size());
+        assertEquals(2.0, res.get(0).getValue(), 0.0);
+    }
+
+    @Test
+    public void testLatePointsKeepRangeQueriesSorted() {
+        long t0 = 50_000L;
+        for (int i = 0; i < 100; i++) {
+            if (i % 10 != 3) store.insert(t0 + i * 10, "late", i, Map.of("agent", "a"));
+        }
+        // lagging agent delivers its points afterwards
+        for (int i = 3; i < 100; i += 10) {
+            store.insert(t0 + i * 10, "late", i, Map.of("agent", "a"));
+        }
+        List<DataPoint> res = store.query("late", t0 + 25, t0 + 505, null);
+        assertEquals(48, res.size());
+        for (int i = 0; i < res.size(); i++) {
+            assertEquals(t0 + 30 + i * 10, res.get(i).getTimestamp());
+            assertEquals(3 + i, res.get(i).getValue(), 0.0);
+        }
+    }
+
+    @Test
+    public void testPersistenceOfTagValuesWithSeparators() {
+        long now = System.currentTimeMillis();
+        Map<String, String> tags = Map.of("query", "a=1, b={2}", "n\u00e4me", "wert, \u00fcnd=mehr");
+        store.insert(now, "odd, metric=name", 1.5, tags);
+        store.insert(now + 1, "odd, metric=name", 2.5, tags);
+        store.shutdown();
+
+        store = new TimeSeriesStoreImpl();
+        assertTrue(store.initialize());
+        List<DataPoint> res = store.query("odd, metric=name", now, now + 2, tags);
+        assertEquals(2, res.size());
+        assertEquals(tags, res.get(1).getTags());
+        assertEquals(2.5, res.get(1).getValue(), 0.0);
+    }
+
+    @Test
+    public void testRecoveryIgnoresTornTail() throws Exception {
+        long now = System.currentTimeMillis();
+        store.insert(now, "torn", 1.0, Map.of("k", "v"));
+        store.shutdown();
+        // simulate a crash in the middle of writing a record
+        try (FileOutputStream out = new FileOutputStream(newestSegment(DATA_DIR).toFile(), true)) {
+            out.write(new byte[] {0, 0, 0, 21, 1, 2, 3});
+        }
+
+        store = new TimeSeriesStoreImpl();
+        assertTrue(store.initialize());
+        store.insert(now + 1, "torn", 2.0, Map.of("k", "v"));
+        store.shutdown();
+
+        store = new TimeSeriesStoreImpl();
+        assertTrue(store.initialize());
+        assertEquals(2, store.query("torn", now, now + 2, null).size());
+    }
+
+    @Test
+    public void testConcurrentInsertsWithGroupCommit() throws Exception {
+        for (Durability durability : Durability.values()) {
+            store.shutdown();
+            deleteRecursively(DATA_DIR);
+            store = new TimeSeriesStoreImpl(new StoreOptions()
+                .setDurability(durability)
+                .setSyncIntervalMillis(5));
+            assertTrue(store.initialize());
+
+            long t0 = System.currentTimeMillis();
+            int threads = 8, perThread = 200;
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final int id = t;
+                results.add(pool.submit(() -> {
+                    boolean ok = true;
+                    for (int i = 0; i < perThread; i++) {
+                        ok &= store.insert(t0 + i, "gc", id, Map.of("thread", "t" + id));
+                    }
+                    return ok;
+                }));
+            }
+            for (Future<Boolean> r : results) assertTrue(r.get());
+            pool.shutdown();
+            store.shutdown();
+
+            store = new TimeSeriesStoreImpl();
+            assertTrue(store.initialize());
+            assertEquals(durability.name(), threads * perThread, store.query("gc", t0, t0 + perThread, null).size());
+            assertEquals(perThread, store.query("gc", t0, t0 + perThread, Map.of("thread", "t3")).size());
+        }
+    }
+
+    @Test
+    public void testIntervalSyncDoesNotDelayInserts() {
+        store.shutdown();
+        store = new TimeSeriesStoreImpl(new StoreOptions()
+            .setDurability(Durability.SYNC_INTERVAL)
+            .setSyncIntervalMillis(60_000));
+        assertTrue(store.initialize());
+        long t0 = System.currentTimeMillis();
+        long started = System.nanoTime();
+        for (int i = 0; i < 100; i++) assertTrue(store.insert(t0 + i, "interval", i, Map.of("k", "v")));
+        // inserts wait for their write, not for the minute-long fsync interval
+        assertTrue((System.nanoTime() - started) / 1_000_000 < 10_000);
+        store.shutdown();
+
+        store = new TimeSeriesStoreImpl();
+        assertTrue(store.initialize());
+        assertEquals(100, store.query("interval", t0, t0 + 100, null).size());
+    }
+
+    @Test
+    public void testSegmentRotationAndCheckpointRecovery() throws Exception {
+        store.shutdown();
+        StoreOptions options = new StoreOptions()
+            .setDurability(Durability.SYNC_INTERVAL)
+            .setSegmentSizeBytes(4096)
+            .setCheckpointSegments(2);
+        TimeSeriesStoreImpl impl = new TimeSeriesStoreImpl(options);
+        store = impl;
+        assertTrue(store.initialize());
+
+        long t0 = System.currentTimeMillis() - 10_000;
+        Map<String, String> tags = Map.of("host", "h1");
+        for (int i = 0; i < 3000; i++) {
+            assertTrue(store.insert(t0 + i, "seg", i, tags));
+        }
+        impl.checkpoint();
+        // late and newer points after the checkpoint only live in the log
+        assertTrue(store.insert(t0 - 1, "seg", -1, tags));
+        for (int i = 3000; i < 3500; i++) {
+            assertTrue(store.insert(t0 + i, "seg", i, tags));
+        }
+        // segments covered by the checkpoint are gone
+        assertFalse(Files.exists(DATA_DIR.resolve("wal-0000000000.log")));
+
+        // recover from a copy taken while the store is running, as after a crash
+        copyDataDir();
+        TimeSeriesStore recovered = new TimeSeriesStoreImpl(new StoreOptions().setDataDirectory(CRASH_COPY));
+        assertTrue(recovered.initialize());
+        List<DataPoint> res = recovered.query("seg", t0 - 1, t0 + 3500, tags);
+        assertEquals(3501, res.size());
+        for (int i = 0; i < res.size(); i++) {
+            assertEquals(t0 - 1 + i, res.get(i).getTimestamp());
+        }
+        assertTrue(recovered.shutdown());
+
+        // a clean restart loads the shutdown checkpoint
+        store.shutdown();
+        store = new TimeSeriesStoreImpl(options);
+        assertTrue(store.initialize());
+        assertEquals(3501, store.query("seg", t0 - 1, t0 + 3500, null).size());
+    }
+
+    @Test
+    public void testParallelRecoveryMatchesLiveStore() throws Exception {
+        store.shutdown();
+        store = new TimeSeriesStoreImpl(new StoreOptions()
+            .setDurability(Durability.SYNC_INTERVAL)
+            .setSegmentSizeBytes(2048)
+            .setCheckpointSegments(Integer.MAX_VALUE));
+        assertTrue(store.initialize());
+
+        long t0 = System.currentTimeMillis() - 100_000;
+        String[] metrics = {"m0", "m1", "m2", "m3"};
+        for (int i = 0; i < 2000; i++) {
+            // every 7th point arrives late, often in a later segment
+            long ts = t0 + (i % 7 == 0 ? i - 150 : i) * 10L;
+            store.insert(ts, metrics[i % metrics.length], i, Map.of("host", "h" + (i % 3)));
+        }
+        copyDataDir();
+        List<long[]> progress = new ArrayList<>();
+        TimeSeriesStore recovered = new TimeSeriesStoreImpl(new StoreOptions()
+            .setDataDirectory(CRASH_COPY)
+            .setRecoveryThreads(4)
+            .setRecoveryProgress((replayed, total, points) -> progress.add(new long[] {replayed, total, points})));
+        assertTrue(recovered.initialize());
+        long[] last = progress.get(progress.size() - 1);
+        assertTrue(progress.size() > 1);
+        assertEquals(last[1], last[0]);
+        assertEquals(2000, last[2]);
+        for (String metric : metrics) {
+            List<DataPoint> expected = store.query(metric, t0 - 10_000, t0 + 30_000, null);
+            List<DataPoint> actual = recovered.query(metric, t0 - 10_000, t0 + 30_000, null);
+            assertEquals(500, actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).getTimestamp(), actual.get(i).getTimestamp());
+                assertEquals(expected.get(i).getTags(), actual.get(i).getTags());
+            }
+        }
+        assertTrue(recovered.shutdown());
+    }
+
+    @Test
+    public void testConcurrentWritersAndReadersAcrossMetrics() throws Exception {
+        long t0 = System.currentTimeMillis();
+        int writers = 6, perWriter = 500;
+        ExecutorService pool = Executors.newFixedThreadPool(writers + 2);
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (int w = 0; w < writers; w++) {
+            final String metric = "metric" + w;
+            results.add(pool.submit(() -> {
+                boolean ok = true;
+                for (int i = 0; i < perWriter; i++) {
+                    // a few late points exercise the background merge
+                    long ts = t0 + (i % 10 == 9 ? i - 5 : i);
+                    ok &= store.insert(ts, metric, i, Map.of("host", "h" + (i % 2)));
+                }
+                return ok;
+            }));
+        }
+        for (int r = 0; r < 2; r++) {
+            final String metric = "metric" + r;
+            results.add(pool.submit(() -> {
+                for (int i = 0; i < 200; i++) {
+                    List<DataPoint> res = store.query(metric, t0, t0 + perWriter, null);
+                    for (int j = 1; j < res.size(); j++) {
+                        if (res.get(j - 1).getTimestamp() > res.get(j).getTimestamp()) return false;
+                    }
+                }
+                return true;
+            }));
+        }
+        for (Future<Boolean> f : results) assertTrue(f.get());
+        pool.shutdown();
+        for (int w = 0; w < writers; w++) {
+            assertEquals(perWriter, store.query("metric" + w, t0 - 10, t0 + perWriter, null).size());
+        }
+    }
+
+    @Test
+    public void testQueryResultIsAnImmutableSnapshot() {
+        long now = System.currentTimeMillis();
+        Map<String, String> tags = Map.of("host", "a");
+        for (int i = 0; i < 10; i++) store.insert(now + i * 10, "snap", i, tags);
+        List<DataPoint> single = store.query("snap", now, now + 1000, null);
+        store.insert(now + 5, "snap", 99, Map.of("host", "b"));
+        List<DataPoint> merged = store.query("snap", now, now + 1000, null);
+        List<DataPoint> streamed = store.query("snap", now, now + 1000, null);
+
+        for (int i = 10; i < 3000; i++) store.insert(now + i * 10, "snap", i, tags);
+        store.insert(now + 1, "snap", -1, tags);
+
+        // merged on first access, after the writes, yet without them
+        List<DataPoint> iterated = new ArrayList<>();
+        for (DataPoint p : streamed) iterated.add(p);
+        assertEquals(11, iterated.size());
+        for (int i = 0; i < 11; i++) {
+            assertEquals(streamed.get(i).getTimestamp(), iterated.get(i).getTimestamp());
+            assertEquals(streamed.get(i).getValue(), iterated.get(i).getValue(), 0.0);
+            assertEquals(merged.get(i).getTags(), iterated.get(i).getTags());
+        }
+
+        assertEquals(10, single.size());
+        assertEquals(11, merged.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(now + i * 10, single.get(i).getTimestamp());
+            assertEquals(i, single.get(i).getValue(), 0.0);
+        }
+        assertEquals(99, merged.get(1).getValue(), 0.0);
+        try {
+            single.add(new DataPoint(now, "snap", 0, tags));
+            fail("query results are immutable");
+        } catch (UnsupportedOperationException expected) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testCursorStreamsQueryResults() {
+        long t0 = System.currentTimeMillis() - 3 * 60 * 60 * 1000L;
+        for (int i = 0; i < 3000; i++) {
+            // spans two time blocks, with a few late points
+            long ts = t0 + i * 4000L - (i % 100 == 0 ? 50_000 : 0);
+            store.insert(ts, "cur", i, Map.of("host", "h" + (i % 5), "dc", i % 2 == 0 ? "a" : "b"));
+        }
+        for (Map<String, String> filter : Arrays.asList(null, Map.of("dc", "a"), Map.of("host", "h3"))) {
+            List<DataPoint> expected = store.query("cur", t0, t0 + 12_000_000, filter);
+            assertCursorMatches(expected, store.cursor("cur", t0, t0 + 12_000_000, filter));
+            // the default cursor(): a lazy result streamed, then read from its columns, then a plain list
+            List<DataPoint> lazy = store.query("cur", t0, t0 + 12_000_000, filter);
+            assertCursorMatches(expected, ListCursor.of(lazy));
+            assertEquals(expected.size(), lazy.size());
+            assertCursorMatches(expected, ListCursor.of(lazy));
+            assertCursorMatches(expected, ListCursor.of(new ArrayList<>(expected)));
+        }
+        assertFalse(store.cursor("missing", t0, t0 + 1000, null).next());
+    }
+
+    private static void assertCursorMatches(List<DataPoint> expected, SeriesCursor cursor) {
+        Map<Integer, Map<String, String>> seriesTags = new HashMap<>();
+        int n = 0;
+        while (cursor.next()) {
+            DataPoint p = expected.get(n++);
+            assertEquals(p.getTimestamp(), cursor.timestamp());
+            assertEquals(p.getValue(), cursor.value(), 0.0);
+            assertEquals(p.getTags(), cursor.tags());
+            assertEquals(cursor.tags(), seriesTags.computeIfAbsent(cursor.seriesId(), id -> cursor.tags()));
+        }
+        assertEquals(expected.size(), n);
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    public void testLatestPointPerSeries() {
+        long t0 = System.currentTimeMillis() - 60 * 60 * 1000L;
+        for (int i = 0; i < 500; i++) {
+            store.insert(t0 + i * 1000L, "lv", i, Map.of("host", "h" + (i % 5), "dc", i % 5 < 2 ? "a" : "b"));
+        }
+        // a late point does not replace the newest one
+        store.insert(t0, "lv", -1, Map.of("host", "h4", "dc", "b"));
+        for (int pass = 0; pass < 2; pass++) {
+            Map<String, Double> byHost = new HashMap<>();
+            for (DataPoint p : store.latest("lv", null)) {
+                assertEquals(t0 + (long) p.getValue() * 1000L, p.getTimestamp());
+                byHost.put(p.getTags().get("host"), p.getValue());
+            }
+            assertEquals(Map.of("h0", 495.0, "h1", 496.0, "h2", 497.0, "h3", 498.0, "h4", 499.0), byHost);
+            List<DataPoint> dcA = store.latest("lv", Map.of("dc", "a"));
+            assertEquals(2, dcA.size());
+            for (DataPoint p : dcA) assertEquals("a", p.getTags().get("dc"));
+            assertTrue(store.latest("lv", Map.of("dc", "c")).isEmpty());
+            assertTrue(store.latest("missing", null).isEmpty());
+            // rebuilt from the checkpoint on restart
+            store.shutdown();
+            store = new TimeSeriesStoreImpl();
+            assertTrue(store.initialize());
+        }
+        store.insert(t0 + 600_000, "lv", 7, Map.of("host", "h0", "dc", "a"));
+        assertEquals(7, store.latest("lv", Map.of("host", "h0")).get(0).getValue(), 0.0);
+    }
+
+    @Test
+    public void testTagFilterExpressions() {
+        long t0 = System.currentTimeMillis() - 3 * 60 * 60 * 1000L;
+        String[] dcs = {"eu", "us", "ap"};
+        for (int i = 0; i < 2400; i++) {
+            int h = i % 24;
+            Map<String, String> tags = new HashMap<>();
+            tags.put("host", "host-" + h);
+            if (h % 4 != 3) tags.put("dc", dcs[h % 3]);
+            // spans two time blocks
+            store.insert(t0 + i * 5000L, "tf", h, tags);
+        }
+        List<TagFilter> filters = Arrays.asList(
+            TagFilter.ALL,
+            TagFilter.eq("dc", "eu"),
+            TagFilter.neq("dc", "eu"),
+            TagFilter.in("host", "host-1", "host-7", "host-30"),
+            TagFilter.prefix("host", "host-1"),
+            TagFilter.regex("host", "host-1.*"),
+            TagFilter.regex("host", "host-(2|4)"),
+            TagFilter.regex("host", "hos?t-\\d"),
+            TagFilter.and(TagFilter.prefix("host", "host-2"), TagFilter.not(TagFilter.eq("dc", "ap"))),
+            TagFilter.or(TagFilter.eq("dc", "us"), TagFilter.regex("host", ".*-5")),
+            TagFilter.not(TagFilter.in("dc", "eu", "us", "ap")),
+            TagFilter.and(TagFilter.not(TagFilter.eq("dc", "eu")), TagFilter.not(TagFilter.eq("dc", "us"))),
+            TagFilter.eq("zone", "x"));
+        List<DataPoint> all = store.query("tf", t0, t0 + 12_000_000, null);
+        assertEquals(2400, all.size());
+        for (TagFilter f : filters) {
+            List<DataPoint> expected = new ArrayList<>();
+            for (DataPoint p : all) {
+                if (f.matches(p.getTags())) expected.add(p);
+            }
+            List<DataPoint> actual = store.query("tf", f, t0, t0 + 12_000_000);
+            assertEquals(f.toString(), expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(f.toString(), expected.get(i).getTimestamp(), actual.get(i).getTimestamp());
+            }
+            assertEquals(f.toString(), expected.size(),
+                store.aggregate("tf", f, t0, t0 + 12_000_000, Aggregation.COUNT), 0.0);
+        }
+        assertEquals(11 * 100, store.query("tf", TagFilter.prefix("host", "host-1"), t0, t0 + 12_000_000).size());
+        assertEquals(6 * 100, store.query("tf", TagFilter.not(TagFilter.in("dc", "eu", "us", "ap")),
+            t0, t0 + 12_000_000).size());
+        assertEquals(TagFilter.of(Map.of("dc", "eu")).toString(), TagFilter.eq("dc", "eu").toString());
+    }
+
+    @Test
+    public void testSelectivityPlansMatchBruteForce() {
+        long t0 = System.currentTimeMillis() - 30 * 60 * 1000L;
+        // 2000 series: a rare host tag next to common dc/env tags
+        for (int h = 0; h < 2000; h++) {
+            Map<String, String> tags = Map.of("host", "h" + h, "dc", h % 2 == 0 ? "eu" : "us",
+                "env", h % 10 == 0 ? "dev" : "prod");
+            // each series writes for its own minute, one point per second
+            long from = t0 + (h % 20) * 60_000L;
+            for (int i = 0; i < 3; i++) store.insert(from + i * 1000L, "sel", h, tags);
+        }
+        List<TagFilter> filters = Arrays.asList(
+            TagFilter.and(TagFilter.eq("dc", "eu"), TagFilter.eq("host", "h42")),
+            TagFilter.and(TagFilter.eq("env", "prod"), TagFilter.in("host", "h1", "h2", "h10", "h11"),
+                TagFilter.eq("dc", "us")),
+            TagFilter.and(TagFilter.prefix("host", "h19"), TagFilter.not(TagFilter.eq("dc", "eu"))),
+            TagFilter.and(TagFilter.regex("host", "h1[0-9]"), TagFilter.not(TagFilter.eq("env", "dev"))),
+            TagFilter.and(TagFilter.eq("dc", "eu"), TagFilter.eq("env", "dev")),
+            TagFilter.and(TagFilter.not(TagFilter.eq("env", "prod")), TagFilter.not(TagFilter.eq("dc", "us"))));
+        long[][] ranges = {{t0, t0 + 20 * 60_000L}, {t0 + 5 * 60_000L, t0 + 5 * 60_000L + 2000}};
+        for (long[] range : ranges) {
+            List<DataPoint> all = store.query("sel", range[0], range[1], null);
+            for (TagFilter f : filters) {
+                long expected = all.stream().filter(p -> f.matches(p.getTags())).count();
+                assertEquals(f.toString(), expected, store.query("sel", f, range[0], range[1]).size());
+            }
+        }
+        // only the 100 series writing in minute 5 have points in the narrow window
+        assertEquals(200, store.query("sel", ranges[1][0], ranges[1][1], null).size());
+        assertEquals(2, store.query("sel", ranges[1][0], ranges[1][1], Map.of("host", "h5", "dc", "us")).size());
+    }
+
+    @Test
+    public void testQueryCacheInvalidatedByInsertsIntoItsWindow() {
+        store.shutdown();
+        store = new TimeSeriesStoreImpl(new StoreOptions().setQueryCacheCapacity(1000));
+        assertTrue(store.initialize());
+        long t0 = System.currentTimeMillis() - 60 * 60 * 1000L;
+        for (int i = 0; i < 600; i++) store.insert(t0 + i * 1000L, "qc", i, Map.of("host", "h" + (i % 2)));
+
+        // closed window: repeated queries are served from the cache
+        List<DataPoint> closed = store.query("qc", t0, t0 + 100_000, Map.of("host", "h0"));
+        assertEquals(50, closed.size());
+        assertSame(closed, store.query("qc", t0, t0 + 100_000, Map.of("host", "h0")));
+        assertSame(closed, store.query("qc", TagFilter.eq("host", "h0"), t0, t0 + 100_000));
+        DownsampledSeries ds = store.downsample("qc", t0, t0 + 100_000, null, 10_000, Aggregation.SUM);
+        assertSame(ds, store.downsample("qc", t0, t0 + 100_000, null, 10_000, Aggregation.SUM));
+        assertEquals(4950, store.aggregate("qc", t0, t0 + 100_000, null, Aggregation.SUM), 0.0);
+
+        // inserts outside the window keep the entries, inserts inside drop them
+        store.insert(t0 + 500_500, "qc", 1, Map.of("host", "h0"));
+        assertSame(closed, store.query("qc", t0, t0 + 100_000, Map.of("host", "h0")));
+        store.insert(t0 + 50_500, "qc", 1000, Map.of("host", "h0"));
+        List<DataPoint> updated = store.query("qc", t0, t0 + 100_000, Map.of("host", "h0"));
+        assertEquals(51, updated.size());
+        assertEquals(5950, store.aggregate("qc", t0, t0 + 100_000, null, Aggregation.SUM), 0.0);
+        assertEquals(1000 + 545, store.downsample("qc", t0, t0 + 100_000, null, 10_000, Aggregation.SUM)
+            .getValue(5), 0.0);
+        store.insertBatch(List.of(new DataPoint(t0 + 10, "qc", 7, Map.of("host", "h1"))));
+        assertEquals(102, store.query("qc", t0, t0 + 100_000, null).size());
+
+        // two large results exceed the capacity together: the least recently used goes
+        List<DataPoint> big = store.query("qc", t0, t0 + 600_000, null);
+        assertEquals(603, big.size());
+        assertSame(big, store.query("qc", t0, t0 + 600_000, null));
+        assertEquals(593, store.query("qc", t0, t0 + 590_000, null).size());
+        List<DataPoint> again = store.query("qc", t0, t0 + 600_000, null);
+        assertNotSame(big, again);
+        assertEquals(big.size(), again.size());
+
+        // filters that print alike but select different series get their own entries
+        store.insert(t0, "qk", 1, Map.of("a", "x", "b", "y"));
+        TagFilter twoKeys = TagFilter.and(TagFilter.eq("a", "x"), TagFilter.eq("b", "y"));
+        TagFilter oneOddKey = TagFilter.and(TagFilter.eq("a=\"x\" and b", "y"));
+        assertEquals(twoKeys.toString(), oneOddKey.toString());
+        assertEquals(1, store.query("qk", twoKeys, t0, t0 + 1).size());
+        assertEquals(0, store.query("qk", oneOddKey, t0, t0 + 1).size());
+    }
+
+    @Test
+    public void testQueryCacheBoundsEmptyResults() {
+        QueryCache cache = new QueryCache(100);
+        for (int i = 0; i < 1000; i++) {
+            // unknown metrics and empty windows all produce zero cost results
+            List<Object> key = QueryCache.key("missing" + i, i, i + 1, null, "query");
+            cache.complete(cache.reserve(key, "missing" + i, i, i + 1), List.of(), 0);
+            assertTrue(cache.size() <= 100);
+        }
+        assertEquals(100, cache.size());
+        assertSame(List.of(), cache.get(QueryCache.key("missing999", 999, 1000, null, "query")));
+    }
+
+    @Test
+    public void testBatchInsertsSurviveRestart() throws IOException {
+        store.shutdown();
+        store = new TimeSeriesStoreImpl(new StoreOptions().setDurability(Durability.SYNC_INTERVAL));
+        assertTrue(store.initialize());
+        long t0 = System.currentTimeMillis();
+        List<DataPoint> batch = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            batch.add(new DataPoint(t0 + i, i % 2 == 0 ? "even" : "odd", i, Map.of("host", "h" + (i % 5))));
+        }
+        assertTrue(store.insertBatch(batch));
+
+        SeriesHandle handle = store.seriesHandle("columnar", Map.of("host", "c"));
+        long[] ts = new long[10_000];
+        double[] vals = new double[ts.length];
+        for (int i = 0; i < ts.length; i++) {
+            ts[i] = t0 + i;
+            vals[i] = i * 0.5;
+        }
+        assertTrue(store.insertBatch(handle, ts, vals));
+        // late points in a second batch go through the out-of-order buffer
+        assertTrue(store.insertBatch(handle, new long[] {t0 - 2, t0 - 1}, new double[] {-1, -0.5}));
+
+        assertEquals(500, store.query("even", t0, t0 + 1000, null).size());
+        assertEquals(100, store.query("odd", t0, t0 + 1000, Map.of("host", "h3")).size());
+        // replay the grouped log records
+        copyDataDir();
+        store.shutdown();
+        store = new TimeSeriesStoreImpl(new StoreOptions().setDataDirectory(CRASH_COPY));
+        assertTrue(store.initialize());
+        assertEquals(500, store.query("odd", t0, t0 + 1000, null).size());
+        List<DataPoint> res = store.query("columnar", t0 - 2, t0 + ts.length, Map.of("host", "c"));
+        assertEquals(ts.length + 2, res.size());
+        assertEquals(-1, res.get(0).getValue(), 0.0);
+        assertEquals(4999.5, res.get(res.size() - 1).getValue(), 0.0);
+    }
+
+    @Test
+    public void testAggregatesMatchQueryResults() {
+        long t0 = System.currentTimeMillis() - 3 * 60 * 60 * 1000L;
+        Random rnd = new Random(11);
+        for (int i = 0; i < 6000; i++) {
+            // spans two time blocks, seals chunks and leaves some late points
+            long ts = t0 + i * 1000L - (i % 50 == 0 ? 30_000 : 0);
+            store.insert(ts, "agg", rnd.nextGaussian() * 100, Map.of("host", "h" + (i % 4)));
+        }
+        long[][] ranges = {{t0, t0 + 6000 * 1000L}, {t0 + 1_234_567, t0 + 4_000_321}, {t0 - 100, t0}};
+        for (long[] r : ranges) {
+            for (Map<String, String> filter : Arrays.asList(null, Map.of("host", "h2"))) {
+                List<DataPoint> points = store.query("agg", r[0], r[1], filter);
+                double sum = 0, min = Double.NaN, max = Double.NaN;
+                for (DataPoint p : points) {
+                    sum += p.getValue();
+                    min = Double.isNaN(min) ? p.getValue() : Math.min(min, p.getValue());
+                    max = Double.isNaN(max) ? p.getValue() : Math.max(max, p.getValue());
+                }
+                assertEquals(points.size(), store.aggregate("agg", r[0], r[1], filter, Aggregation.COUNT), 0.0);
+                assertEquals(sum, store.aggregate("agg", r[0], r[1], filter, Aggregation.SUM), 1e-6);
+                assertEquals(min, store.aggregate("agg", r[0], r[1], filter, Aggregation.MIN), 0.0);
+                assertEquals(max, store.aggregate("agg", r[0], r[1], filter, Aggregation.MAX), 0.0);
+                double avg = points.isEmpty() ? Double.NaN : sum / points.size();
+                assertEquals(avg, store.aggregate("agg", r[0], r[1], filter, Aggregation.AVG), 1e-9);
+            }
+        }
+        assertEquals(0, store.aggregate("missing", t0, t0 + 1, null, Aggregation.COUNT), 0.0);
+    }
+
+    @Test
+    public void testDownsampleMatchesClientSideBucketing() {
+        long t0 = System.currentTimeMillis() - 3 * 60 * 60 * 1000L;
+        Random rnd = new Random(5);
+        for (int i = 0; i < 5000; i++) {
+            long ts = t0 + i * 2000L - (i % 40 == 0 ? 100_000 : 0);
+            store.insert(ts, "ds", rnd.nextInt(1000), Map.of("host", "h" + (i % 3)));
+        }
+        long step = 60_000;
+        long from = t0 + 12_345, to = t0 + 9_000_000;
+        for (Map<String, String> filter : Arrays.asList(null, Map.of("host", "h1"))) {
+            int n = (int) ((to - from + step - 1) / step);
+            double[] sum = new double[n];
+            double[] max = new double[n];
+            int[] count = new int[n];
+            Arrays.fill(max, Double.NaN);
+            for (DataPoint p : store.query("ds", from, to, filter)) {
+                int b = (int) ((p.getTimestamp() - from) / step);
+                sum[b] += p.getValue();
+                count[b]++;
+                max[b] = Double.isNaN(max[b]) ? p.getValue() : Math.max(max[b], p.getValue());
+            }
+            DownsampledSeries sums = store.downsample("ds", from, to, filter, step, Aggregation.SUM);
+            DownsampledSeries counts = store.downsample("ds", from, to, filter, step, Aggregation.COUNT);
+            DownsampledSeries maxes = store.downsample("ds", from, to, filter, step, Aggregation.MAX);
+            assertEquals(n, sums.size());
+            for (int b = 0; b < n; b++) {
+                assertEquals(from + b * step, sums.getTimestamp(b));
+                assertEquals(sum[b], sums.getValue(b), 0.0);
+                assertEquals(count[b], counts.getValue(b), 0.0);
+                assertEquals(max[b], maxes.getValue(b), 0.0);
+            }
+        }
+        assertEquals(0, store.downsample("ds", from, from, null, step, Aggregation.AVG).size());
+    }
+
+    @Test
+    public void testGroupByTag() {
+        long t0 = System.currentTimeMillis();
+        String[] dcs = {"eu", "us", "ap"};
+        for (int i = 0; i < 600; i++) {
+            Map<String, String> tags = new HashMap<>();
+            tags.put("host", "h" + (i % 6));
+            if (i % 6 != 5) tags.put("dc", dcs[i % 6 % 3]);
+            store.insert(t0 + i, "cpu.usage", i % 6, tags);
+        }
+        Map<String, Double> avg = store.aggregateBy("cpu.usage", t0, t0 + 600, null, "dc", Aggregation.AVG);
+        // host h5 has no dc tag
+        assertEquals(List.of("ap", "eu", "us"), new ArrayList<>(avg.keySet()));
+        assertEquals(1.5, avg.get("eu"), 0.0);
+        assertEquals(2.5, avg.get("us"), 0.0);
+        assertEquals(2.0, avg.get("ap"), 0.0);
+
+        Map<String, Double> counts = store.aggregateBy("cpu.usage", t0, t0 + 600, Map.of("dc", "eu"), "host",
+            Aggregation.COUNT);
+        assertEquals(Map.of("h0", 100.0, "h3", 100.0), counts);
+
+        Map<String, DownsampledSeries> perDc = store.downsampleBy("cpu.usage", t0, t0 + 600, null, "dc", 60,
+            Aggregation.SUM);
+        assertEquals(3, perDc.size());
+        for (int b = 0; b < 10; b++) assertEquals(10 * (0 + 3), perDc.get("eu").getValue(b), 0.0);
+    }
+
+    @Test
+    public void testGroupByOmitsGroupsWithoutPointsInRange() {
+        long now = System.currentTimeMillis();
+        // eu has points on both sides of the range, but none inside it
+        store.insert(now - 10_000, "gb", 5.0, Map.of("region", "eu"));
+        store.insert(now + 10_000, "gb", 5.0, Map.of("region", "eu"));
+        store.insert(now, "gb", 1.0, Map.of("region", "us"));
+        Map<String, Double> avg = store.aggregateBy("gb", now, now + 1, null, "region", Aggregation.AVG);
+        assertEquals(Map.of("us", 1.0), avg);
+        Map<String, DownsampledSeries> perRegion = store.downsampleBy("gb", now, now + 1, null, "region", 1,
+            Aggregation.COUNT);
+        assertEquals(List.of("us"), new ArrayList<>(perRegion.keySet()));
+    }
+
+    @Test
+    public void testRollupServedAggregatesMatchRawPoints() {
+        long hour = 60 * 60 * 1000L;
+        long t0 = (System.currentTimeMillis() / hour - 5) * hour;
+        Random rnd = new Random(9);
+        for (int i = 0; i < 8000; i++) {
+            // every 50th point arrives a few minutes late
+            long ts = t0 + i * 2000L - (i % 50 == 0 ? 200_000 : 0);
+            store.insert(ts, "ru", rnd.nextInt(1000) - 500, Map.of("host", "h" + (i % 4)));
+        }
+        long from = t0 + 7 * 60_000, to = t0 + 4 * hour + 123;
+        for (int pass = 0; pass < 2; pass++) {
+            // 1h-aligned steps and whole ranges with unaligned edges go through the rollups
+            for (long step : new long[] {60_000, 5 * 60_000, hour}) {
+                DownsampledSeries sums = store.downsample("ru", from, to, null, step, Aggregation.SUM);
+                DownsampledSeries mins = store.downsample("ru", from, to, Map.of("host", "h2"), step,
+                    Aggregation.MIN);
+                for (int b = 0; b < sums.size(); b++) {
+                    long start = from + b * step, end = Math.min(to, start + step);
+                    assertEquals(rawAggregate(store.query("ru", start, end, null), Aggregation.SUM),
+                        sums.getValue(b), 0.0);
+                    assertEquals(rawAggregate(store.query("ru", start, end, Map.of("host", "h2")), Aggregation.MIN),
+                        mins.getValue(b), 0.0);
+                }
+            }
+            for (Aggregation agg : Aggregation.values()) {
+                assertEquals(rawAggregate(store.query("ru", from, to, null), agg),
+                    store.aggregate("ru", from, to, null, agg), 1e-9);
+            }
+            // rollups are checkpointed on shutdown and loaded on restart
+            store.shutdown();
+            store = new TimeSeriesStoreImpl();
+            assertTrue(store.initialize());
+        }
+    }
+
+    @Test
+    public void testParallelScanOfSeriesEndingAtMaxTimestamp() {
+        store.shutdown();
+        store = new TimeSeriesStoreImpl(new StoreOptions().setParallelQueryThreshold(1));
+        assertTrue(store.initialize());
+        List<Long> expected = new ArrayList<>();
+        for (int i = 0; i < 100; i++) expected.add(Long.MAX_VALUE - 1000 + i * 10);
+        // the last task's range ends right before the newest point
+        expected.add(Long.MAX_VALUE - 2);
+        expected.add(Long.MAX_VALUE - 1);
+        for (int i = 0; i < expected.size(); i++) {
+            store.insert(expected.get(i), "edge", i, Map.of("host", "h" + (i % 2)));
+        }
+        store.insert(Long.MAX_VALUE, "edge", -1, Map.of("host", "h0"));
+        List<DataPoint> points = store.query("edge", Long.MAX_VALUE - 2000, Long.MAX_VALUE, null);
+        assertEquals(expected.size(), points.size());
+        for (int i = 0; i < expected.size(); i++) assertEquals((long) expected.get(i), points.get(i).getTimestamp());
+    }
+
+    @Test
+    public void testParallelQueriesMatchSequential() {
+        long t0 = TimeBlock.alignedStart(System.currentTimeMillis() - 10 * 60 * 60 * 1000L) + 1;
+        // 8 series over 3 blocks, each with its own timestamps so the merged order is unique
+        for (int s = 0; s < 8; s++) {
+            Map<String, String> tags = Map.of("host", "h" + s, "dc", s % 2 == 0 ? "eu" : "us");
+            for (int i = 0; i < 2000; i++) store.insert(t0 + i * 5_000L + s, "par", (i * 7 + s) % 101, tags);
+            // late points into the out-of-order buffers
+            for (int i = 0; i < 20; i++) store.insert(t0 + i * 50_000L + 10 + s, "par", -i, tags);
+        }
+        long[][] ranges = {{t0, t0 + 6 * 60 * 60 * 1000L}, {t0 + 3_333_333, t0 + 7_777_777}, {t0 + 1000, t0 + 2000}};
+        List<List<DataPoint>> points = new ArrayList<>();
+        List<Object> aggregates = new ArrayList<>();
+        for (long[] r : ranges) {
+            points.add(store.query("par", r[0], r[1], null));
+            points.add(store.query("par", r[0], r[1], Map.of("dc", "us")));
+            for (Aggregation agg : Aggregation.values()) {
+                aggregates.add(store.aggregate("par", r[0], r[1], null, agg));
+                aggregates.add(store.downsample("par", r[0], r[1], null, 60_000, agg).getValues());
+                aggregates.add(store.aggregateBy("par", r[0], r[1], null, "dc", agg));
+            }
+        }
+        // the same queries again, every one of them split into fork/join tasks
+        store.shutdown();
+        store = new TimeSeriesStoreImpl(new StoreOptions().setParallelQueryThreshold(1));
+        assertTrue(store.initialize());
+        int p = 0, a = 0;
+        for (long[] r : ranges) {
+            assertSamePoints(points.get(p++), store.query("par", r[0], r[1], null));
+            assertSamePoints(points.get(p++), store.query("par", r[0], r[1], Map.of("dc", "us")));
+            for (Aggregation agg : Aggregation.values()) {
+                assertEquals((double) aggregates.get(a++), store.aggregate("par", r[0], r[1], null, agg), 1e-6);
+                double[] expected = (double[]) aggregates.get(a++);
+                double[] actual = store.downsample("par", r[0], r[1], null, 60_000, agg).getValues();
+                assertEquals(expected.length, actual.length);
+                for (int i = 0; i < expected.length; i++) assertEquals(expected[i], actual[i], 1e-6);
+                @SuppressWarnings("unchecked")
+                Map<String, Double> groups = (Map<String, Double>) aggregates.get(a++);
+                Map<String, Double> parallel = store.aggregateBy("par", r[0], r[1], null, "dc", agg);
+                assertEquals(groups.keySet(), parallel.keySet());
+                for (String g : groups.keySet()) assertEquals(groups.get(g), parallel.get(g), 1e-6);
+            }
+        }
+        assertEquals(16_160, store.query("par", ranges[0][0], ranges[0][1], null).size());
+    }
+
+    private static void assertSamePoints(List<DataPoint> expected, List<DataPoint> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getTimestamp(), actual.get(i).getTimestamp());
+            assertEquals(expected.get(i).getValue(), actual.get(i).getValue(), 0.0);
+            assertEquals(expected.get(i).getTags(), actual.get(i).getTags());
+        }
+    }
+
+    private static double rawAggregate(List<DataPoint> points, Aggregation aggregation) {
+        PartialAggregate p = new PartialAggregate();
+        for (DataPoint dp : points) p.add(dp.getValue());
+        return p.result(aggregation);
+    }
 }
@@ -0,0 +1,77 @@
+package com.interview.timeseries;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * Tests for the value column kernels: the kernel in use (vectorized when
+ * available) against point by point aggregation.
+ */
+public class ValueKernelsTest {
+
+    private static void assertSameAggregate(PartialAggregate expected, PartialAggregate actual) {
+        assertEquals(expected.count, actual.count);
+        assertEquals(expected.sum, actual.sum, Math.abs(expected.sum) * 1e-12);
+        assertEquals(expected.min, actual.min, 0.0);
+        assertEquals(expected.max, actual.max, 0.0);
+    }
+
+    @Test
+    public void testKernelMatchesPointByPoint() {
+        Random rnd = new Random(7);
+        double[] values = new double[1000];
+        for (int i = 0; i < values.length; i++) values[i] = rnd.nextGaussian() * 1000;
+        // runs of every alignment and a tail shorter than a vector
+        int[][] runs = {{0, 1000}, {3, 997}, {1, 40}, {500, 531}, {0, 0}, {999, 1000}};
+        for (int[] run : runs) {
+            PartialAggregate expected = new PartialAggregate();
+            for (int i = run[0]; i < run[1]; i++) expected.add(values[i]);
+            PartialAggregate actual = new PartialAggregate();
+            ValueKernels.fold(values, run[0], run[1], actual);
+            assertSameAggregate(expected, actual);
+            actual = new PartialAggregate();
+            ValueKernels.KERNEL.fold(values, run[0], run[1], actual);
+            assertSameAggregate(expected, actual);
+        }
+    }
+
+    @Test
+    public void testSealedChunksFoldLikePoints() {
+        Random rnd = new Random(11);
+        SeriesColumns cols = new SeriesColumns();
+        int n = SeriesColumns.HEAD_CAPACITY * 4 + 100;
+        for (int i = 0; i < n; i++) cols.add(i * 10L, rnd.nextGaussian() * 100);
+        assertEquals(4, cols.sealedChunkCount());
+        SeriesColumns.Snapshot snapshot = cols.snapshot();
+        // ranges starting and ending inside sealed chunks, in one or many buckets
+        long from = 5_005, to = (n - 50) * 10L, step = 3_333;
+        for (int buckets : new int[] {1, (int) ((to - from - 1) / step + 1)}) {
+            PartialAggregate[] expected = new PartialAggregate[buckets];
+            PartialAggregate[] actual = new PartialAggregate[buckets];
+            for (int b = 0; b < buckets; b++) {
+                expected[b] = new PartialAggregate();
+                actual[b] = new PartialAggregate();
+            }
+            SeriesColumns.Cursor cursor = snapshot.cursor(from, to);
+            while (cursor.next()) {
+                expected[buckets == 1 ? 0 : (int) ((cursor.timestamp() - from) / step)].add(cursor.value());
+            }
+            snapshot.aggregate(from, to, from, step, false, actual);
+            for (int b = 0; b < buckets; b++) assertSameAggregate(expected[b], actual[b]);
+        }
+    }
+
+    @Test
+    public void testMinMaxSkipNaN() {
+        double[] values = new double[100];
+        for (int i = 0; i < values.length; i++) values[i] = i % 10 == 3 ? Double.NaN : i;
+        PartialAggregate p = new PartialAggregate();
+        ValueKernels.fold(values, 0, values.length, p);
+        assertEquals(100, p.count);
+        assertEquals(0.0, p.min, 0.0);
+        assertEquals(99.0, p.max, 0.0);
+        assertEquals(Double.NaN, p.sum, 0.0);
+    }
+}
@@ -0,0 +1,35 @@
+package com.interview.timeseries;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * ValueKernels.Kernel on the incubating Vector API, loaded by ValueKernels
+ * when available. Needs JDK 17+ and --add-modules jdk.incubator.vector to
+ * compile and run.
+ *
+ * Keeps count/sum/min/max per lane and reduces them at the end. Like the
+ * scalar loop, min and max skip NaN values: a lane only takes values
+ * comparing below (above) its current one.
+ */
+final class VectorKernel implements ValueKernels.Kernel {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    @Override
+    public void fold(double[] values, int from, int to, PartialAggregate into) {
+        DoubleVector sum = DoubleVector.zero(SPECIES);
+        DoubleVector min = DoubleVector.broadcast(SPECIES, Double.POSITIVE_INFINITY);
+        DoubleVector max = DoubleVector.broadcast(SPECIES, Double.NEGATIVE_INFINITY);
+        int i = from;
+        for (int bound = from + SPECIES.loopBound(to - from); i < bound; i += SPECIES.length()) {
+            DoubleVector v = DoubleVector.fromArray(SPECIES, values, i);
+            sum = sum.add(v);
+            min = min.blend(v, v.lt(min));
+            max = max.blend(v, v.compare(VectorOperators.GT, max));
+        }
+        into.merge(i - from, sum.reduceLanes(VectorOperators.ADD),
+            min.reduceLanes(VectorOperators.MIN), max.reduceLanes(VectorOperators.MAX));
+        ValueKernels.foldScalar(values, i, to, into);
+    }
+}